@@ -0,0 +1,194 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index of 5-prime UTRs by position, to find the UTRs that contain a variant without checking every UTR in the genome.
+ * <p>
+ * Each chromosome has an implicit augmented interval tree over all the UTR exons on it. The exons are sorted by start position, and the sorted array is treated as a balanced binary tree, in which the node at index i is at level equal to the number of trailing one bits of i. Each node records the largest exon end in its subtree, so that whole subtrees that end before the query can be skipped. A query takes O(log n + k) time, where k is the number of overlapping exons. The index does not change after it is created, so it can be shared between threads.
+ */
+public class FivePrimeUtrIndex
+{
+	private Uorf.FivePrimeUtr[] utrs;
+	private Map<String, ContigIndex> contigs = new HashMap<String, ContigIndex>();
+
+	/**
+	 * Creates an index of the given 5-prime UTRs.
+	 *
+	 * @param utrs a List of FivePrimeUtr objects
+	 */
+	public FivePrimeUtrIndex(List<Uorf.FivePrimeUtr> utrs) {
+		this.utrs = utrs.toArray(new Uorf.FivePrimeUtr[utrs.size()]);
+		Map<String, List<long[]>> exonsByChr = new HashMap<String, List<long[]>>();
+		for (int i = 0; i < this.utrs.length; i++) {
+			for (Uorf.FivePrimeUtrExon exon : this.utrs[i].getExons()) {
+				List<long[]> exons = exonsByChr.get(exon.getChr());
+				if (exons == null) {
+					exons = new ArrayList<long[]>();
+					exonsByChr.put(exon.getChr(), exons);
+				}
+				exons.add(new long[] {exon.getStart(), exon.getEnd(), i});
+			}
+		}
+		for (Map.Entry<String, List<long[]>> entry : exonsByChr.entrySet()) {
+			contigs.put(entry.getKey(), new ContigIndex(entry.getValue()));
+		}
+	}
+
+	/**
+	 * Returns the number of 5-prime UTRs in the index.
+	 *
+	 * @return an int
+	 */
+	public int size() {
+		return utrs.length;
+	}
+
+	/**
+	 * Find the 5-prime UTRs that have an exon overlapping a region.
+	 *
+	 * @param chr the chromosome
+	 * @param start the start of the region (inclusive)
+	 * @param end the end of the region (inclusive)
+	 *
+	 * @return a List of FivePrimeUtr objects, each appearing once, in the order that they were given to the index
+	 */
+	public List<Uorf.FivePrimeUtr> getOverlapping(String chr, int start, int end) {
+		ContigIndex contig = contigs.get(chr);
+		if (contig == null) {
+			return new ArrayList<Uorf.FivePrimeUtr>();
+		}
+		int[] found = contig.query(start, end);
+		int count = found.length;
+		if (count > 1) {
+			// Several exons of the same UTR may overlap a large variant
+			Arrays.sort(found);
+			count = 1;
+			for (int i = 1; i < found.length; i++) {
+				if (found[i] != found[count - 1]) {
+					found[count++] = found[i];
+				}
+			}
+		}
+		List<Uorf.FivePrimeUtr> retval = new ArrayList<Uorf.FivePrimeUtr>(count);
+		for (int i = 0; i < count; i++) {
+			retval.add(utrs[found[i]]);
+		}
+		return retval;
+	}
+
+	/**
+	 * The interval tree of the UTR exons on one chromosome.
+	 */
+	private static class ContigIndex
+	{
+		private int[] starts, ends, maxEnds, utrIndexes;
+		private int maxLevel;
+
+		private ContigIndex(List<long[]> exons) {
+			int n = exons.size();
+			// Sort by start, keeping track of which exon is which
+			long[] order = new long[n];
+			for (int i = 0; i < n; i++) {
+				order[i] = (exons.get(i)[0] << 32) | i;
+			}
+			Arrays.sort(order);
+			starts = new int[n];
+			ends = new int[n];
+			maxEnds = new int[n];
+			utrIndexes = new int[n];
+			for (int i = 0; i < n; i++) {
+				long[] exon = exons.get((int) order[i]);
+				starts[i] = (int) exon[0];
+				ends[i] = (int) exon[1];
+				utrIndexes[i] = (int) exon[2];
+			}
+			// Fill in the largest end in each subtree, one level at a time. Leaves are at the even indexes.
+			int lastIndex = 0;
+			int last = 0;
+			for (int i = 0; i < n; i += 2) {
+				lastIndex = i;
+				maxEnds[i] = last = ends[i];
+			}
+			int level = 1;
+			for (; (1 << level) <= n; level++) {
+				int half = 1 << (level - 1);
+				for (int i = (half << 1) - 1; i < n; i += half << 2) {
+					int leftMax = maxEnds[i - half];
+					// The right child may be missing if the tree is not full, in which case use the last node that exists
+					int rightMax = (i + half < n ? maxEnds[i + half] : last);
+					maxEnds[i] = Math.max(ends[i], Math.max(leftMax, rightMax));
+				}
+				lastIndex = (((lastIndex >> level) & 1) != 0 ? lastIndex - half : lastIndex + half);
+				if ((lastIndex < n) && (maxEnds[lastIndex] > last)) {
+					last = maxEnds[lastIndex];
+				}
+			}
+			maxLevel = level - 1;
+		}
+
+		/**
+		 * Find the exons overlapping a region.
+		 *
+		 * @param start the start of the region (inclusive)
+		 * @param end the end of the region (inclusive)
+		 *
+		 * @return an array of the indexes of the UTRs that the overlapping exons belong to
+		 */
+		private int[] query(int start, int end) {
+			int n = starts.length;
+			int[] found = new int[4];
+			int foundCount = 0;
+			// Each stack entry is a node level, a node index, and whether its left child has already been visited
+			int[] stackLevel = new int[64];
+			int[] stackNode = new int[64];
+			boolean[] stackLeftDone = new boolean[64];
+			int t = 0;
+			if (n > 0) {
+				stackLevel[t] = maxLevel;
+				stackNode[t] = (1 << maxLevel) - 1;
+				stackLeftDone[t++] = false;
+			}
+			while (t > 0) {
+				t--;
+				int level = stackLevel[t];
+				int node = stackNode[t];
+				if (level <= 3) {
+					// Small subtrees are quicker to scan directly
+					int i0 = (node >> level) << level;
+					int i1 = Math.min(i0 + (1 << (level + 1)) - 1, n);
+					for (int i = i0; (i < i1) && (starts[i] <= end); i++) {
+						if (ends[i] >= start) {
+							if (foundCount == found.length) {
+								found = Arrays.copyOf(found, foundCount * 2);
+							}
+							found[foundCount++] = utrIndexes[i];
+						}
+					}
+				} else if (!stackLeftDone[t]) {
+					int left = node - (1 << (level - 1));
+					// Come back to this node after the left child
+					stackLeftDone[t++] = true;
+					if ((left >= n) || (maxEnds[left] >= start)) {
+						stackLevel[t] = level - 1;
+						stackNode[t] = left;
+						stackLeftDone[t++] = false;
+					}
+				} else if ((node < n) && (starts[node] <= end)) {
+					if (ends[node] >= start) {
+						if (foundCount == found.length) {
+							found = Arrays.copyOf(found, foundCount * 2);
+						}
+						found[foundCount++] = utrIndexes[node];
+					}
+					stackLevel[t] = level - 1;
+					stackNode[t] = node + (1 << (level - 1));
+					stackLeftDone[t++] = false;
+				}
+			}
+			return Arrays.copyOf(found, foundCount);
+		}
+	}
+}
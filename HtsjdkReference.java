@@ -0,0 +1,31 @@
+import htsjdk.samtools.reference.IndexedFastaSequenceFile;
+import java.io.IOException;
+
+/**
+ * A reference genome read through a htsjdk IndexedFastaSequenceFile.
+ * An IndexedFastaSequenceFile cannot be read by several threads at once, so reads are synchronized.
+ */
+public class HtsjdkReference implements ReferenceProvider
+{
+	private IndexedFastaSequenceFile reference;
+
+	/**
+	 * Creates a new reference provider.
+	 *
+	 * @param reference the IndexedFastaSequenceFile to read from
+	 */
+	public HtsjdkReference(IndexedFastaSequenceFile reference) {
+		this.reference = reference;
+	}
+
+	public synchronized byte[] getBases(String chr, int start, int end) {
+		return reference.getSubsequenceAt(chr, start, end).getBases();
+	}
+
+	/**
+	 * Close the IndexedFastaSequenceFile.
+	 */
+	public void close() throws IOException {
+		reference.close();
+	}
+}
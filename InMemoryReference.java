@@ -0,0 +1,56 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A reference genome held in memory, for callers that already have the sequences they need, so no files are read.
+ * Chromosomes can be added at any time, and reads from several threads at once do not block.
+ */
+public class InMemoryReference implements ReferenceProvider
+{
+	private Map<String, byte[]> sequences = new ConcurrentHashMap<String, byte[]>();
+
+	/**
+	 * Creates a new reference genome with no chromosomes.
+	 */
+	public InMemoryReference() {
+	}
+
+	/**
+	 * Creates a new reference genome holding the given sequences. The arrays are not copied, so must not be modified afterwards.
+	 *
+	 * @param sequences a Map from chromosome name to the bases of the whole chromosome
+	 */
+	public InMemoryReference(Map<String, byte[]> sequences) {
+		this.sequences.putAll(sequences);
+	}
+
+	/**
+	 * Add a chromosome, replacing any chromosome with the same name.
+	 *
+	 * @param chr the chromosome name
+	 * @param bases the bases of the whole chromosome
+	 */
+	public void put(String chr, String bases) {
+		sequences.put(chr, bases.getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+	public byte[] getBases(String chr, int start, int end) {
+		byte[] sequence = sequences.get(chr);
+		if (sequence == null) {
+			throw new IllegalArgumentException("Chromosome " + chr + " is not in the reference genome");
+		}
+		if ((start < 1) || (end > sequence.length) || (end < start - 1)) {
+			throw new IllegalArgumentException("Region " + chr + ":" + start + "-" + end + " is outside the chromosome, which has length " + sequence.length);
+		}
+		return Arrays.copyOfRange(sequence, start - 1, end);
+	}
+
+	/**
+	 * Does nothing, as there are no files to close.
+	 */
+	public void close() throws IOException {
+	}
+}
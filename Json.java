@@ -0,0 +1,242 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal JSON reader and writer, for the small messages passed to and from UorfServer.
+ * Objects are read as a Map from String to value, arrays as a List, numbers as a Long if they are whole numbers or a Double otherwise, and true, false and null as Boolean.TRUE, Boolean.FALSE and null.
+ */
+class Json
+{
+	/**
+	 * The deepest nesting of objects and arrays that can be read. Deeper JSON is rejected, rather than running out of stack.
+	 */
+	static final int MAX_DEPTH = 64;
+
+	private String text;
+	private int pos = 0;
+	private int depth = 0;
+
+	private Json(String text) {
+		this.text = text;
+	}
+
+	/**
+	 * Read a JSON value.
+	 *
+	 * @param text the JSON text
+	 *
+	 * @return a Map, List, String, Long, Double, Boolean, or null
+	 * @throws IllegalArgumentException if the text is not valid JSON, or is nested more than MAX_DEPTH deep
+	 */
+	static Object parse(String text) {
+		Json json = new Json(text);
+		Object retval = json.readValue();
+		json.skipWhitespace();
+		if (json.pos != text.length()) {
+			throw json.error("Unexpected text after the end of the JSON value");
+		}
+		return retval;
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(message + " at position " + pos);
+	}
+
+	private void skipWhitespace() {
+		while ((pos < text.length()) && Character.isWhitespace(text.charAt(pos))) {
+			pos++;
+		}
+	}
+
+	private void expect(char c) {
+		skipWhitespace();
+		if ((pos >= text.length()) || (text.charAt(pos) != c)) {
+			throw error("Expected '" + c + "'");
+		}
+		pos++;
+	}
+
+	/**
+	 * Read the comma or closing bracket after an element of an object or array.
+	 *
+	 * @param close the closing bracket
+	 *
+	 * @return true if the closing bracket was read, or false for a comma
+	 */
+	private boolean endOfList(char close) {
+		skipWhitespace();
+		if (pos >= text.length()) {
+			throw error("Expected '" + close + "'");
+		}
+		char c = text.charAt(pos++);
+		if (c == close) {
+			return true;
+		} else if (c != ',') {
+			pos--;
+			throw error("Expected ',' or '" + close + "'");
+		}
+		return false;
+	}
+
+	private Object readValue() {
+		skipWhitespace();
+		if (pos >= text.length()) {
+			throw error("Unexpected end of JSON");
+		}
+		char c = text.charAt(pos);
+		if ((c == '{') || (c == '[')) {
+			if (depth == MAX_DEPTH) {
+				throw error("JSON nested more than " + MAX_DEPTH + " deep");
+			}
+			depth++;
+			Object retval = (c == '{' ? readObject() : readArray());
+			depth--;
+			return retval;
+		} else if (c == '"') {
+			return readString();
+		} else if (text.startsWith("true", pos)) {
+			pos += 4;
+			return Boolean.TRUE;
+		} else if (text.startsWith("false", pos)) {
+			pos += 5;
+			return Boolean.FALSE;
+		} else if (text.startsWith("null", pos)) {
+			pos += 4;
+			return null;
+		}
+		int start = pos;
+		while ((pos < text.length()) && ("+-0123456789.eE".indexOf(text.charAt(pos)) != -1)) {
+			pos++;
+		}
+		String number = text.substring(start, pos);
+		try {
+			if ((number.indexOf('.') == -1) && (number.indexOf('e') == -1) && (number.indexOf('E') == -1)) {
+				return Long.parseLong(number);
+			}
+			return Double.parseDouble(number);
+		} catch (NumberFormatException e) {
+			pos = start;
+			throw error("Invalid JSON value");
+		}
+	}
+
+	private Map<String, Object> readObject() {
+		pos++;
+		Map<String, Object> retval = new LinkedHashMap<String, Object>();
+		skipWhitespace();
+		if ((pos < text.length()) && (text.charAt(pos) == '}')) {
+			pos++;
+			return retval;
+		}
+		while (true) {
+			skipWhitespace();
+			String key = readString();
+			expect(':');
+			retval.put(key, readValue());
+			if (endOfList('}')) {
+				return retval;
+			}
+		}
+	}
+
+	private List<Object> readArray() {
+		pos++;
+		List<Object> retval = new ArrayList<Object>();
+		skipWhitespace();
+		if ((pos < text.length()) && (text.charAt(pos) == ']')) {
+			pos++;
+			return retval;
+		}
+		while (true) {
+			retval.add(readValue());
+			if (endOfList(']')) {
+				return retval;
+			}
+		}
+	}
+
+	private String readString() {
+		if ((pos >= text.length()) || (text.charAt(pos) != '"')) {
+			throw error("Expected a string");
+		}
+		pos++;
+		StringBuilder retval = new StringBuilder();
+		while (true) {
+			if (pos >= text.length()) {
+				throw error("Unterminated string");
+			}
+			char c = text.charAt(pos++);
+			if (c == '"') {
+				return retval.toString();
+			} else if (c == '\\') {
+				if (pos >= text.length()) {
+					throw error("Unterminated string");
+				}
+				char e = text.charAt(pos++);
+				switch (e) {
+					case 'b':
+						retval.append('\b');
+						break;
+					case 'f':
+						retval.append('\f');
+						break;
+					case 'n':
+						retval.append('\n');
+						break;
+					case 'r':
+						retval.append('\r');
+						break;
+					case 't':
+						retval.append('\t');
+						break;
+					case 'u':
+						if (pos + 4 > text.length()) {
+							throw error("Invalid escape");
+						}
+						try {
+							retval.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+						} catch (NumberFormatException ex) {
+							throw error("Invalid escape");
+						}
+						pos += 4;
+						break;
+					default:
+						retval.append(e);
+				}
+			} else {
+				retval.append(c);
+			}
+		}
+	}
+
+	/**
+	 * Append a String to some JSON, as a quoted and escaped JSON string, or null.
+	 *
+	 * @param json the JSON being written
+	 * @param value the String to append, or null
+	 */
+	static void appendString(StringBuilder json, String value) {
+		if (value == null) {
+			json.append("null");
+			return;
+		}
+		json.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if ((c == '"') || (c == '\\')) {
+				json.append('\\').append(c);
+			} else if (c == '\n') {
+				json.append("\\n");
+			} else if (c == '\t') {
+				json.append("\\t");
+			} else if (c < 0x20) {
+				json.append(String.format("\\u%04x", (int) c));
+			} else {
+				json.append(c);
+			}
+		}
+		json.append('"');
+	}
+}
@@ -0,0 +1,89 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A reference genome read from a fasta file by mapping the file into memory, using the offsets in its samtools .fai index.
+ * <p>
+ * Sub-sequences are copied straight out of the mapped pages, skipping the line breaks, without any locking or file reads, so one MappedFastaReference can be shared by any number of threads. The pages are held in the operating system's page cache, so they are also shared with other processes reading the same genome. The fasta file must not be compressed.
+ */
+public class MappedFastaReference implements ReferenceProvider
+{
+	private MappedFile file;
+	private Map<String, Contig> contigs = new HashMap<String, Contig>();
+
+	/**
+	 * Opens a fasta file, which must have a samtools .fai index next to it.
+	 *
+	 * @param fasta the fasta file
+	 */
+	public MappedFastaReference(File fasta) throws IOException {
+		File index = new File(fasta.getPath() + ".fai");
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(index), StandardCharsets.ISO_8859_1))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.isEmpty()) {
+					continue;
+				}
+				String[] split = line.split("\t");
+				if (split.length < 5) {
+					throw new IOException("Invalid line in " + index + ": " + line);
+				}
+				contigs.put(split[0], new Contig(Integer.parseInt(split[1]), Long.parseLong(split[2]), Integer.parseInt(split[3]), Integer.parseInt(split[4])));
+			}
+		}
+		file = new MappedFile(fasta);
+	}
+
+	public byte[] getBases(String chr, int start, int end) {
+		Contig contig = contigs.get(chr);
+		if (contig == null) {
+			throw new IllegalArgumentException("Chromosome " + chr + " is not in the reference genome");
+		}
+		if ((start < 1) || (end > contig.length) || (end < start - 1)) {
+			throw new IllegalArgumentException("Region " + chr + ":" + start + "-" + end + " is outside the chromosome, which has length " + contig.length);
+		}
+		byte[] retval = new byte[end - start + 1];
+		long base = start - 1;
+		int done = 0;
+		while (done < retval.length) {
+			// Copy the rest of the line, or as much of it as is needed
+			int column = (int) (base % contig.lineBases);
+			int run = Math.min(contig.lineBases - column, retval.length - done);
+			long position = contig.offset + (base / contig.lineBases) * contig.lineWidth + column;
+			file.get(position, retval, done, run);
+			done += run;
+			base += run;
+		}
+		return retval;
+	}
+
+	/**
+	 * Close the fasta file. The mapped memory is released when it is garbage collected.
+	 */
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * The position of a chromosome in the fasta file, from the .fai index.
+	 */
+	private static class Contig
+	{
+		private int length;
+		private long offset;
+		private int lineBases, lineWidth;
+
+		private Contig(int length, long offset, int lineBases, int lineWidth) {
+			this.length = length;
+			this.offset = offset;
+			this.lineBases = lineBases;
+			this.lineWidth = lineWidth;
+		}
+	}
+}
@@ -0,0 +1,115 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only file mapped into memory, which may be larger than the 2GB limit of a single mapping.
+ * The bytes are held in the operating system's page cache rather than the Java heap, and reads do not change any state, so they can be made from any number of threads at once.
+ */
+class MappedFile
+{
+	/**
+	 * The file is mapped in parts of 2 to the power of this many bytes.
+	 */
+	private static final int SEGMENT_BITS = 30;
+	private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+	private FileChannel channel;
+	private MappedByteBuffer[] segments;
+	private long size;
+
+	/**
+	 * Maps a whole file into memory.
+	 *
+	 * @param file the file
+	 */
+	MappedFile(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		size = channel.size();
+		segments = new MappedByteBuffer[(int) ((size + SEGMENT_MASK) >>> SEGMENT_BITS)];
+		for (int i = 0; i < segments.length; i++) {
+			long position = ((long) i) << SEGMENT_BITS;
+			segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(SEGMENT_MASK + 1, size - position));
+		}
+	}
+
+	/**
+	 * Returns the size of the file.
+	 *
+	 * @return a long
+	 */
+	long size() {
+		return size;
+	}
+
+	/**
+	 * Returns the byte at a position in the file.
+	 *
+	 * @param position the position in the file
+	 *
+	 * @return a byte
+	 */
+	byte get(long position) {
+		return segments[(int) (position >>> SEGMENT_BITS)].get((int) (position & SEGMENT_MASK));
+	}
+
+	/**
+	 * Returns the big-endian int at a position in the file.
+	 *
+	 * @param position the position in the file
+	 *
+	 * @return an int
+	 */
+	int getInt(long position) {
+		return ((get(position) & 0xff) << 24) | ((get(position + 1) & 0xff) << 16) | ((get(position + 2) & 0xff) << 8) | (get(position + 3) & 0xff);
+	}
+
+	/**
+	 * Returns the big-endian long at a position in the file.
+	 *
+	 * @param position the position in the file
+	 *
+	 * @return a long
+	 */
+	long getLong(long position) {
+		return (((long) getInt(position)) << 32) | (getInt(position + 4) & 0xffffffffL);
+	}
+
+	/**
+	 * Copy bytes from the file into an array.
+	 *
+	 * @param position the position in the file to copy from
+	 * @param bytes the array to copy to, which is filled
+	 */
+	void get(long position, byte[] bytes) {
+		get(position, bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Copy bytes from the file into part of an array, in bulk from each mapped segment that they are in.
+	 *
+	 * @param position the position in the file to copy from
+	 * @param bytes the array to copy to
+	 * @param offset the position in the array to copy to
+	 * @param length the number of bytes to copy
+	 */
+	void get(long position, byte[] bytes, int offset, int length) {
+		while (length > 0) {
+			int index = (int) (position & SEGMENT_MASK);
+			int run = (int) Math.min(length, SEGMENT_MASK + 1 - index);
+			segments[(int) (position >>> SEGMENT_BITS)].get(index, bytes, offset, run);
+			position += run;
+			offset += run;
+			length -= run;
+		}
+	}
+
+	/**
+	 * Close the file. The mapped memory is released when it is garbage collected.
+	 */
+	void close() throws IOException {
+		channel.close();
+	}
+}
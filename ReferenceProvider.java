@@ -0,0 +1,45 @@
+import htsjdk.samtools.reference.IndexedFastaSequenceFile;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A source of reference genome sequence, used to read the exons of 5-prime UTRs.
+ * Implementations must allow getBases to be called by several threads at once. The implementations are:
+ * <ul><li>MappedFastaReference, which memory-maps an uncompressed fasta file, and is the fastest for a whole genome.</li>
+ *     <li>HtsjdkReference, which reads any fasta file that htsjdk can, including bgzip compressed files, but only from one thread at a time.</li>
+ *     <li>TwoBitReference, which memory-maps a UCSC .2bit file, holding the whole genome in a quarter of the space.</li>
+ *     <li>InMemoryReference, for sequences that the caller already holds in memory.</li>
+ * </ul>
+ */
+public interface ReferenceProvider extends Closeable
+{
+	/**
+	 * Returns the bases in a region of a chromosome, as they appear in the reference genome. They may be lower-case, or contain unknown bases.
+	 *
+	 * @param chr the chromosome
+	 * @param start the first base of the region, counting from 1
+	 * @param end the last base of the region (inclusive)
+	 *
+	 * @return a byte array of ASCII bases, which the caller may modify
+	 */
+	public byte[] getBases(String chr, int start, int end);
+
+	/**
+	 * Open a reference genome file with the fastest implementation that can read it. A file with a name ending in ".2bit" is read as a UCSC .2bit file, an uncompressed fasta file with a .fai index is memory-mapped, and any other file is read with htsjdk.
+	 *
+	 * @param file the reference genome file
+	 *
+	 * @return a ReferenceProvider
+	 */
+	public static ReferenceProvider open(File file) throws IOException {
+		String name = file.getName();
+		if (name.endsWith(".2bit")) {
+			return new TwoBitReference(file);
+		}
+		if ((!name.endsWith(".gz")) && (!name.endsWith(".bgz")) && new File(file.getPath() + ".fai").isFile()) {
+			return new MappedFastaReference(file);
+		}
+		return new HtsjdkReference(new IndexedFastaSequenceFile(file));
+	}
+}
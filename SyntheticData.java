@@ -0,0 +1,255 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes a random reference genome, annotation and VCF file, for measuring the speed of annotation without downloading real data. The output is the same every time for the same arguments.
+ * <p>
+ * The genome is written as a fasta file with a .fai index. The annotation is a GTF file of transcripts on both strands, each with a 5-prime UTR of one to four exons followed by a CDS. Most of the variants in the VCF file lie in these UTRs, and they are a mixture of SNVs, small InDels and larger insertions.
+ */
+public class SyntheticData
+{
+	private static final byte[] BASES = {'A', 'C', 'G', 'T'};
+	private static final int LINE_LENGTH = 60;
+	private static final int CDS_LENGTH = 300;
+
+	/**
+	 * Write a synthetic data set, according to the command-line arguments.
+	 * <ul><li>Optionally, "-s" followed by the random seed. The default is 1.</li>
+	 *     <li>Optionally, "-g" followed by the fraction of G and C bases. The default is 0.5.</li>
+	 *     <li>The prefix of the output files. The files prefix.fa, prefix.fa.fai, prefix.gtf and prefix.vcf are written.</li>
+	 *     <li>The number of chromosomes.</li>
+	 *     <li>The length of each chromosome.</li>
+	 *     <li>The number of transcripts.</li>
+	 *     <li>The number of variants.</li>
+	 * </ul>
+	 * For instance:<br>
+	 * java SyntheticData synthetic 4 10000000 20000 1000000
+	 *
+	 * @param args the command-line arguments
+	 */
+	public static void main(String[] args) throws IOException {
+		long seed = 1;
+		double gc = 0.5;
+		int argStart = 0;
+		while ((args.length > argStart + 1) && args[argStart].startsWith("-")) {
+			if ("-s".equals(args[argStart])) {
+				seed = Long.parseLong(args[argStart + 1]);
+			} else if ("-g".equals(args[argStart])) {
+				gc = Double.parseDouble(args[argStart + 1]);
+			} else {
+				break;
+			}
+			argStart += 2;
+		}
+		if (args.length - argStart != 5) {
+			System.err.println("Usage: java SyntheticData [-s seed] [-g gc_fraction] <output_prefix> <chromosomes> <chromosome_length> <transcripts> <variants>");
+			System.exit(1);
+		}
+		String prefix = args[argStart];
+		int contigs = Integer.parseInt(args[argStart + 1]);
+		int contigLength = Integer.parseInt(args[argStart + 2]);
+		int transcripts = Integer.parseInt(args[argStart + 3]);
+		int variants = Integer.parseInt(args[argStart + 4]);
+		Random random = new Random(seed);
+		long start = System.currentTimeMillis();
+		byte[][] genome = new byte[contigs][];
+		for (int i = 0; i < contigs; i++) {
+			genome[i] = randomBases(random, contigLength, gc);
+		}
+		writeFasta(genome, prefix + ".fa");
+		List<int[]> utrExons = writeGtf(random, genome, transcripts, prefix + ".gtf");
+		writeVcf(random, genome, utrExons, variants, gc, prefix + ".vcf");
+		System.err.println("Wrote " + contigs + " chromosomes of " + contigLength + " bases, " + transcripts + " transcripts and " + variants + " variants to " + prefix + ".* in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * Returns random bases, with a given chance of each base being G or C.
+	 *
+	 * @param random the random number generator
+	 * @param length the number of bases
+	 * @param gc the fraction of G and C bases
+	 *
+	 * @return a byte array of A, C, G and T
+	 */
+	static byte[] randomBases(Random random, int length, double gc) {
+		byte[] retval = new byte[length];
+		for (int i = 0; i < length; i++) {
+			if (random.nextDouble() < gc) {
+				retval[i] = BASES[1 + random.nextInt(2)];
+			} else {
+				retval[i] = BASES[3 * random.nextInt(2)];
+			}
+		}
+		return retval;
+	}
+
+	private static String contigName(int contig) {
+		return "chr" + (contig + 1);
+	}
+
+	/**
+	 * Write the genome as a fasta file, with a .fai index.
+	 */
+	private static void writeFasta(byte[][] genome, String file) throws IOException {
+		try (Writer fasta = new BufferedWriter(new FileWriter(file), 1 << 20); Writer fai = new BufferedWriter(new FileWriter(file + ".fai"))) {
+			long offset = 0;
+			char[] line = new char[LINE_LENGTH];
+			for (int i = 0; i < genome.length; i++) {
+				String header = ">" + contigName(i) + "\n";
+				fasta.write(header);
+				offset += header.length();
+				fai.write(contigName(i) + "\t" + genome[i].length + "\t" + offset + "\t" + LINE_LENGTH + "\t" + (LINE_LENGTH + 1) + "\n");
+				for (int o = 0; o < genome[i].length; o += LINE_LENGTH) {
+					int length = Math.min(LINE_LENGTH, genome[i].length - o);
+					for (int p = 0; p < length; p++) {
+						line[p] = (char) genome[i][o + p];
+					}
+					fasta.write(line, 0, length);
+					fasta.write('\n');
+					offset += length + 1;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write a GTF file of random transcripts, each with a 5-prime UTR of one to four exons, and a CDS that starts in the last exon of the UTR.
+	 *
+	 * @return the 5-prime UTR exons, as contig, start and end
+	 */
+	private static List<int[]> writeGtf(Random random, byte[][] genome, int transcripts, String file) throws IOException {
+		List<int[]> retval = new ArrayList<int[]>();
+		try (Writer out = new BufferedWriter(new FileWriter(file), 1 << 20)) {
+			for (int t = 0; t < transcripts; t++) {
+				int contig = random.nextInt(genome.length);
+				boolean forward = random.nextBoolean();
+				int exonCount = 1 + random.nextInt(4);
+				// Lay out the exons from left to right, as start and end pairs
+				int[] exons = new int[exonCount * 2];
+				int length = 0;
+				for (int i = 0; i < exonCount; i++) {
+					exons[i * 2] = length;
+					length += 20 + random.nextInt(480);
+					exons[i * 2 + 1] = length - 1;
+					length += 50 + random.nextInt(1950);
+				}
+				length = exons[exonCount * 2 - 1] + 1 + CDS_LENGTH;
+				if (length + 2 > genome[contig].length) {
+					throw new IllegalArgumentException("Chromosomes are too short for the transcripts");
+				}
+				int offset = 1 + random.nextInt(genome[contig].length - length);
+				String name = "T" + (t + 1);
+				String attributes = "\tgene_id \"G" + (t + 1) + "\"; transcript_id \"" + name + "\";\n";
+				String prefix = contigName(contig) + "\tsynthetic\t";
+				char strand = (forward ? '+' : '-');
+				for (int i = 0; i < exonCount; i++) {
+					exons[i * 2] += offset;
+					exons[i * 2 + 1] += offset;
+				}
+				// On the reverse strand the UTR exons are mirrored, so that the CDS is on the left
+				int cdsStart, cdsEnd;
+				if (forward) {
+					cdsStart = exons[exonCount * 2 - 1] + 1;
+					cdsEnd = cdsStart + CDS_LENGTH - 1;
+				} else {
+					exons = mirror(exons, offset, length);
+					cdsEnd = exons[0] - 1;
+					cdsStart = cdsEnd - CDS_LENGTH + 1;
+				}
+				for (int i = 0; i < exonCount; i++) {
+					int start = exons[i * 2];
+					int end = exons[i * 2 + 1];
+					retval.add(new int[] {contig, start, end});
+					// The exon holding the start of the CDS also holds the CDS
+					if (forward && (i == exonCount - 1)) {
+						end = cdsEnd;
+					} else if (!forward && (i == 0)) {
+						start = cdsStart;
+					}
+					out.write(prefix + "exon\t" + start + "\t" + end + "\t.\t" + strand + "\t." + attributes);
+				}
+				out.write(prefix + "CDS\t" + cdsStart + "\t" + cdsEnd + "\t.\t" + strand + "\t0" + attributes);
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * Returns exon start and end positions mirrored within a transcript, keeping them in start and end pairs from left to right.
+	 */
+	private static int[] mirror(int[] exons, int offset, int length) {
+		int[] retval = new int[exons.length];
+		int right = offset + length - 1;
+		for (int i = 0; i < exons.length; i++) {
+			retval[exons.length - 1 - i] = offset + right - exons[i];
+		}
+		return retval;
+	}
+
+	/**
+	 * Write a VCF file of random variants, sorted by position. Most of them are in the given 5-prime UTR exons, and the rest are anywhere in the genome.
+	 */
+	private static void writeVcf(Random random, byte[][] genome, List<int[]> utrExons, int variants, double gc, String file) throws IOException {
+		// Each variant is packed into a long of contig and position, so that sorting puts them in VCF order
+		long[] positions = new long[variants];
+		for (int i = 0; i < variants; i++) {
+			int contig, pos;
+			if (!utrExons.isEmpty() && (random.nextInt(10) < 8)) {
+				int[] exon = utrExons.get(random.nextInt(utrExons.size()));
+				contig = exon[0];
+				pos = exon[1] + random.nextInt(exon[2] - exon[1] + 1);
+			} else {
+				contig = random.nextInt(genome.length);
+				pos = 1 + random.nextInt(genome[contig].length);
+			}
+			positions[i] = (((long) contig) << 32) | pos;
+		}
+		Arrays.sort(positions);
+		try (Writer out = new BufferedWriter(new FileWriter(file), 1 << 20)) {
+			out.write("##fileformat=VCFv4.2\n");
+			for (int i = 0; i < genome.length; i++) {
+				out.write("##contig=<ID=" + contigName(i) + ",length=" + genome[i].length + ">\n");
+			}
+			out.write("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\n");
+			StringBuilder line = new StringBuilder();
+			for (int i = 0; i < variants; i++) {
+				int contig = (int) (positions[i] >>> 32);
+				int pos = (int) positions[i];
+				byte[] bases = genome[contig];
+				char base = (char) bases[pos - 1];
+				line.setLength(0);
+				line.append(contigName(contig)).append('\t').append(pos).append("\t.\t").append(base);
+				int kind = random.nextInt(20);
+				if ((kind < 5) && (pos + 10 <= bases.length)) {
+					// A deletion of 1 to 10 bases
+					int deleted = 1 + random.nextInt(10);
+					for (int o = 0; o < deleted; o++) {
+						line.append((char) bases[pos + o]);
+					}
+					line.append('\t').append(base);
+				} else if (kind < 10) {
+					// An insertion of 1 to 10 bases, or sometimes 11 to 100
+					line.append('\t').append(base);
+					int inserted = (kind == 9 ? 11 + random.nextInt(90) : 1 + random.nextInt(10));
+					for (byte b : randomBases(random, inserted, gc)) {
+						line.append((char) b);
+					}
+				} else {
+					char alt = base;
+					while (alt == base) {
+						alt = (char) BASES[random.nextInt(4)];
+					}
+					line.append('\t').append(alt);
+				}
+				line.append("\t.\tPASS\t.\n");
+				out.append(line);
+			}
+		}
+	}
+}
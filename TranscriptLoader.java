@@ -0,0 +1,301 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Load transcript annotation, and work out the 5-prime UTR of each protein-coding transcript.
+ * <p>
+ * Four formats are understood, chosen by the file name (ignoring any ".gz" suffix):
+ * <ul><li>".gtf" - a GTF file, such as those from Ensembl and GENCODE. Records are grouped into transcripts by their transcript_id attribute.</li>
+ *     <li>".gff" or ".gff3" - a GFF3 file, such as those from RefSeq and Ensembl. Records are grouped into transcripts by their Parent attribute, and named by their transcript_id attribute if they have one.</li>
+ *     <li>".utrpack" - a pre-built UtrPack, which also holds the sequences of the UTRs, so the reference genome is not needed.</li>
+ *     <li>Anything else - a 5-prime UTR table (see readUtrTable).</li>
+ * </ul>
+ * For GTF and GFF3, the 5-prime UTR of a transcript is taken to be the parts of its exons that lie before the start of its CDS. This works whether or not the file has UTR records, and whether or not they are labelled as 5-prime or 3-prime. Transcripts without a CDS are skipped.
+ */
+public class TranscriptLoader
+{
+	/**
+	 * Load the 5-prime UTRs from an annotation file, choosing the format from the file name.
+	 *
+	 * @param file the file to read, which may be gzip compressed
+	 *
+	 * @return a List of FivePrimeUtr objects, named by transcript, in the order that the transcripts first appear in the file
+	 */
+	public static List<Uorf.FivePrimeUtr> load(File file) throws IOException {
+		String name = file.getName().toLowerCase();
+		if (name.endsWith(".utrpack")) {
+			return new UtrPack(file).getUtrs();
+		}
+		if (name.endsWith(".gz")) {
+			name = name.substring(0, name.length() - 3);
+		}
+		try (BufferedReader in = openText(file.getPath())) {
+			if (name.endsWith(".gtf")) {
+				return readGtf(in, false);
+			} else if (name.endsWith(".gff") || name.endsWith(".gff3")) {
+				return readGtf(in, true);
+			} else {
+				return readUtrTable(in);
+			}
+		}
+	}
+
+	/**
+	 * Read a GTF or GFF3 file, and work out the 5-prime UTR of each transcript. Only the exon and CDS records are used.
+	 *
+	 * @param in the file to read
+	 * @param gff3 true if the file is GFF3, false for GTF
+	 *
+	 * @return a List of FivePrimeUtr objects, named by transcript, in the order that the transcripts first appear in the file
+	 */
+	public static List<Uorf.FivePrimeUtr> readGtf(BufferedReader in, boolean gff3) throws IOException {
+		Map<String, TranscriptBuilder> transcripts = new LinkedHashMap<String, TranscriptBuilder>();
+		int[] tabs = new int[8];
+		String line;
+		while ((line = in.readLine()) != null) {
+			if (line.isEmpty() || (line.charAt(0) == '#')) {
+				continue;
+			}
+			int tab = -1;
+			for (int i = 0; i < 8; i++) {
+				tab = line.indexOf('\t', tab + 1);
+				if (tab == -1) {
+					throw new IOException("Invalid " + (gff3 ? "GFF3" : "GTF") + " line: " + line);
+				}
+				tabs[i] = tab;
+			}
+			// Only look at exon and CDS records, without creating Strings for the others
+			boolean exon;
+			int typeLength = tabs[2] - tabs[1] - 1;
+			if ((typeLength == 4) && line.startsWith("exon", tabs[1] + 1)) {
+				exon = true;
+			} else if ((typeLength == 3) && line.startsWith("CDS", tabs[1] + 1)) {
+				exon = false;
+			} else {
+				continue;
+			}
+			int start = parseInt(line, tabs[2] + 1, tabs[3]);
+			int end = parseInt(line, tabs[3] + 1, tabs[4]);
+			char strand = line.charAt(tabs[5] + 1);
+			if ((strand != '+') && (strand != '-')) {
+				continue;
+			}
+			if (gff3) {
+				String parents = getAttribute(line, tabs[7] + 1, "Parent=", ';');
+				if (parents == null) {
+					continue;
+				}
+				// An exon can be shared by several transcripts, in which case its transcript_id cannot name them all
+				String name = (parents.indexOf(',') == -1 ? getAttribute(line, tabs[7] + 1, "transcript_id=", ';') : null);
+				int comma = -1;
+				do {
+					int parentStart = comma + 1;
+					comma = parents.indexOf(',', parentStart);
+					String parent = parents.substring(parentStart, comma == -1 ? parents.length() : comma);
+					String transcriptName = name;
+					if (transcriptName == null) {
+						transcriptName = parent.startsWith("transcript:") ? parent.substring(11) : parent;
+					}
+					addFeature(transcripts, line, tabs, parent, transcriptName, strand, exon, start, end);
+				} while (comma != -1);
+			} else {
+				String transcriptId = getAttribute(line, tabs[7] + 1, "transcript_id \"", '"');
+				if (transcriptId == null) {
+					continue;
+				}
+				addFeature(transcripts, line, tabs, transcriptId, transcriptId, strand, exon, start, end);
+			}
+		}
+		List<Uorf.FivePrimeUtr> retval = new ArrayList<Uorf.FivePrimeUtr>();
+		for (TranscriptBuilder transcript : transcripts.values()) {
+			Uorf.FivePrimeUtr utr = transcript.build();
+			if (utr != null) {
+				retval.add(utr);
+			}
+		}
+		return retval;
+	}
+
+	private static void addFeature(Map<String, TranscriptBuilder> transcripts, String line, int[] tabs, String id, String name, char strand, boolean exon, int start, int end) {
+		// The same transcript ID can appear on more than one chromosome, for instance in the pseudo-autosomal regions
+		String key = id + '\t' + line.substring(0, tabs[0]);
+		TranscriptBuilder transcript = transcripts.get(key);
+		if (transcript == null) {
+			transcript = new TranscriptBuilder(name, line.substring(0, tabs[0]), strand == '+');
+			transcripts.put(key, transcript);
+		}
+		if (exon) {
+			transcript.addExon(start, end);
+		} else {
+			transcript.addCds(start, end);
+		}
+	}
+
+	/**
+	 * Find the value of an attribute in the attribute column of a GTF or GFF3 line.
+	 *
+	 * @param line the line
+	 * @param from the index of the start of the attribute column
+	 * @param key the attribute name, with the separator before the value, for instance "Parent=" or "transcript_id \""
+	 * @param terminator the character that marks the end of the value
+	 *
+	 * @return the value, or null if the attribute is not present
+	 */
+	private static String getAttribute(String line, int from, String key, char terminator) {
+		int index = line.indexOf(key, from);
+		// Make sure the match is a whole attribute name, and not the end of a longer one
+		while ((index > from) && (line.charAt(index - 1) != ';') && (line.charAt(index - 1) != ' ')) {
+			index = line.indexOf(key, index + 1);
+		}
+		if (index == -1) {
+			return null;
+		}
+		int valueStart = index + key.length();
+		int valueEnd = line.indexOf(terminator, valueStart);
+		return line.substring(valueStart, valueEnd == -1 ? line.length() : valueEnd);
+	}
+
+	private static int parseInt(String line, int from, int to) throws IOException {
+		if (from >= to) {
+			throw new IOException("Missing number in line: " + line);
+		}
+		int retval = 0;
+		for (int i = from; i < to; i++) {
+			int digit = line.charAt(i) - '0';
+			if ((digit < 0) || (digit > 9)) {
+				throw new IOException("Invalid number in line: " + line);
+			}
+			retval = retval * 10 + digit;
+		}
+		return retval;
+	}
+
+	/**
+	 * Collects the exons and CDS of one transcript while the file is being read.
+	 */
+	private static class TranscriptBuilder
+	{
+		private String name, chr;
+		private boolean forwardStrand;
+		private long[] exons = new long[8];
+		private int exonCount = 0;
+		private int cdsStart = Integer.MAX_VALUE;
+		private int cdsEnd = Integer.MIN_VALUE;
+
+		private TranscriptBuilder(String name, String chr, boolean forwardStrand) {
+			this.name = name;
+			this.chr = chr;
+			this.forwardStrand = forwardStrand;
+		}
+
+		private void addExon(int start, int end) {
+			if (exonCount == exons.length) {
+				exons = Arrays.copyOf(exons, exonCount * 2);
+			}
+			// Pack the start and end into one long, so that sorting orders the exons by start
+			exons[exonCount++] = (((long) start) << 32) | end;
+		}
+
+		private void addCds(int start, int end) {
+			cdsStart = Math.min(cdsStart, start);
+			cdsEnd = Math.max(cdsEnd, end);
+		}
+
+		/**
+		 * Creates the 5-prime UTR from the parts of the exons before the CDS.
+		 *
+		 * @return a FivePrimeUtr, or null if the transcript has no CDS or no 5-prime UTR
+		 */
+		private Uorf.FivePrimeUtr build() {
+			if (cdsStart > cdsEnd) {
+				return null;
+			}
+			Arrays.sort(exons, 0, exonCount);
+			List<Uorf.FivePrimeUtrExon> utrExons = new ArrayList<Uorf.FivePrimeUtrExon>();
+			if (forwardStrand) {
+				for (int i = 0; i < exonCount; i++) {
+					int start = (int) (exons[i] >>> 32);
+					int end = (int) exons[i];
+					if (start < cdsStart) {
+						utrExons.add(new Uorf.FivePrimeUtrExon(chr, start, Math.min(end, cdsStart - 1)));
+					}
+				}
+			} else {
+				// Exon number order is from the highest position to the lowest
+				for (int i = exonCount - 1; i >= 0; i--) {
+					int start = (int) (exons[i] >>> 32);
+					int end = (int) exons[i];
+					if (end > cdsEnd) {
+						utrExons.add(new Uorf.FivePrimeUtrExon(chr, Math.max(start, cdsEnd + 1), end));
+					}
+				}
+			}
+			if (utrExons.isEmpty()) {
+				return null;
+			}
+			return new Uorf.FivePrimeUtr(name, forwardStrand, utrExons);
+		}
+	}
+
+	/**
+	 * Read a 5-prime UTR table. Each line describes one transcript, with tab-separated columns. These are the transcript name, the chromosome, the strand (1 for forward and -1 for reverse), and then the start and end positions (inclusive) of each 5-prime UTR exon, in exon number order. This is the same layout as the command-line arguments of Uorf. Lines starting with "#" are ignored.
+	 * <p>
+	 * For instance:<br>
+	 * POLRMT	19	-1	633513	633568
+	 *
+	 * @param in the file to read
+	 *
+	 * @return a List of FivePrimeUtr objects
+	 */
+	public static List<Uorf.FivePrimeUtr> readUtrTable(BufferedReader in) throws IOException {
+		List<Uorf.FivePrimeUtr> retval = new ArrayList<Uorf.FivePrimeUtr>();
+		String line;
+		while ((line = in.readLine()) != null) {
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String[] split = line.split("\t");
+			if ((split.length < 5) || (split.length % 2 == 0)) {
+				throw new IOException("Invalid 5-prime UTR line: " + line);
+			}
+			String chr = split[1];
+			List<Uorf.FivePrimeUtrExon> exons = new ArrayList<Uorf.FivePrimeUtrExon>();
+			for (int i = 3; i < split.length; i += 2) {
+				exons.add(new Uorf.FivePrimeUtrExon(chr, Integer.parseInt(split[i]), Integer.parseInt(split[i + 1])));
+			}
+			retval.add(new Uorf.FivePrimeUtr(split[0], Integer.parseInt(split[2]) > 0, exons));
+		}
+		return retval;
+	}
+
+	/**
+	 * Open a text file for reading. Plain, gzip and bgzip files are all accepted, and "-" means standard input.
+	 *
+	 * @param name the file name
+	 *
+	 * @return a BufferedReader
+	 */
+	public static BufferedReader openText(String name) throws IOException {
+		InputStream in = new BufferedInputStream("-".equals(name) ? System.in : new FileInputStream(name), 1 << 16);
+		in.mark(2);
+		int magic = in.read() | (in.read() << 8);
+		in.reset();
+		if (magic == GZIPInputStream.GZIP_MAGIC) {
+			// GZIPInputStream reads all the concatenated blocks of a bgzip file
+			in = new GZIPInputStream(in, 1 << 16);
+		}
+		return new BufferedReader(new InputStreamReader(in, StandardCharsets.ISO_8859_1), 1 << 16);
+	}
+}
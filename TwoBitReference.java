@@ -0,0 +1,313 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A reference genome held as 2-bit packed bases, in the UCSC .2bit file format, which can be made with this class or with the UCSC faToTwoBit tool.
+ * <p>
+ * The file is mapped into memory, so it is ready to use as soon as it is opened, and the bases are held in the operating system's page cache rather than the Java heap, so they do not add to garbage collection. A whole human genome takes about 800MB. Each byte holds four bases, which are unpacked four at a time through a lookup table. Runs of unknown bases are kept as a short sorted list of blocks for each chromosome, and are filled in with N after unpacking. Soft-masking is not kept, so all bases are returned in upper case. Reads do not change any state, so one TwoBitReference can be shared by any number of threads.
+ */
+public class TwoBitReference implements ReferenceProvider
+{
+	private static final int SIGNATURE = 0x1A412743;
+
+	/**
+	 * The bases that each of the four two-bit codes stand for.
+	 */
+	private static final byte[] BASES = new byte[] {'T', 'C', 'A', 'G'};
+
+	/**
+	 * The four bases packed into each possible byte, with the first base in the most significant bits.
+	 */
+	private static final byte[] UNPACK = new byte[1024];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			for (int o = 0; o < 4; o++) {
+				UNPACK[i * 4 + o] = BASES[(i >> (6 - o * 2)) & 3];
+			}
+		}
+	}
+
+	private MappedFile file;
+	private boolean bigEndian;
+	private Map<String, Integer> contigIndexes = new HashMap<String, Integer>();
+	private int[] lengths;
+	private long[] dnaOffsets;
+	private int[][] nBlockStarts, nBlockEnds;
+
+	/**
+	 * Opens a .2bit file.
+	 *
+	 * @param twoBit the .2bit file
+	 */
+	public TwoBitReference(File twoBit) throws IOException {
+		file = new MappedFile(twoBit);
+		if (file.size() < 16) {
+			throw new IOException(twoBit + " is not a .2bit file");
+		}
+		bigEndian = false;
+		if (readInt(0) != SIGNATURE) {
+			bigEndian = true;
+			if (readInt(0) != SIGNATURE) {
+				throw new IOException(twoBit + " is not a .2bit file");
+			}
+		}
+		int version = readInt(4);
+		if ((version != 0) && (version != 1)) {
+			throw new IOException(twoBit + " has unknown .2bit version " + version);
+		}
+		int count = readInt(8);
+		lengths = new int[count];
+		dnaOffsets = new long[count];
+		nBlockStarts = new int[count][];
+		nBlockEnds = new int[count][];
+		long position = 16;
+		for (int i = 0; i < count; i++) {
+			int nameLength = file.get(position++) & 0xff;
+			byte[] name = new byte[nameLength];
+			for (int o = 0; o < nameLength; o++) {
+				name[o] = file.get(position++);
+			}
+			contigIndexes.put(new String(name, StandardCharsets.ISO_8859_1), i);
+			// Version 1 files have 64-bit offsets, for files over 4GB
+			long recordOffset;
+			if (version == 0) {
+				recordOffset = readInt(position) & 0xffffffffL;
+				position += 4;
+			} else {
+				recordOffset = (bigEndian ? ((readInt(position) & 0xffffffffL) << 32) | (readInt(position + 4) & 0xffffffffL) : (readInt(position) & 0xffffffffL) | ((readInt(position + 4) & 0xffffffffL) << 32));
+				position += 8;
+			}
+			lengths[i] = readInt(recordOffset);
+			int nBlockCount = readInt(recordOffset + 4);
+			nBlockStarts[i] = new int[nBlockCount];
+			nBlockEnds[i] = new int[nBlockCount];
+			for (int o = 0; o < nBlockCount; o++) {
+				nBlockStarts[i][o] = readInt(recordOffset + 8 + 4L * o);
+				nBlockEnds[i][o] = nBlockStarts[i][o] + readInt(recordOffset + 8 + 4L * (nBlockCount + o));
+			}
+			long maskOffset = recordOffset + 8 + 8L * nBlockCount;
+			int maskBlockCount = readInt(maskOffset);
+			// Skip the mask blocks and a reserved word
+			dnaOffsets[i] = maskOffset + 4 + 8L * maskBlockCount + 4;
+		}
+	}
+
+	private int readInt(long position) {
+		int b0 = file.get(position) & 0xff;
+		int b1 = file.get(position + 1) & 0xff;
+		int b2 = file.get(position + 2) & 0xff;
+		int b3 = file.get(position + 3) & 0xff;
+		return (bigEndian ? (b0 << 24) | (b1 << 16) | (b2 << 8) | b3 : (b3 << 24) | (b2 << 16) | (b1 << 8) | b0);
+	}
+
+	public byte[] getBases(String chr, int start, int end) {
+		Integer index = contigIndexes.get(chr);
+		if (index == null) {
+			throw new IllegalArgumentException("Chromosome " + chr + " is not in the reference genome");
+		}
+		int contig = index;
+		if ((start < 1) || (end > lengths[contig]) || (end < start - 1)) {
+			throw new IllegalArgumentException("Region " + chr + ":" + start + "-" + end + " is outside the chromosome, which has length " + lengths[contig]);
+		}
+		int from = start - 1;
+		byte[] retval = new byte[end - from];
+		long dnaOffset = dnaOffsets[contig];
+		int i = from;
+		// Unpack bases one at a time up to a byte boundary, then four at a time
+		while ((i < end) && ((i & 3) != 0)) {
+			retval[i - from] = UNPACK[(file.get(dnaOffset + (i >> 2)) & 0xff) * 4 + (i & 3)];
+			i++;
+		}
+		while (i + 4 <= end) {
+			System.arraycopy(UNPACK, (file.get(dnaOffset + (i >> 2)) & 0xff) * 4, retval, i - from, 4);
+			i += 4;
+		}
+		while (i < end) {
+			retval[i - from] = UNPACK[(file.get(dnaOffset + (i >> 2)) & 0xff) * 4 + (i & 3)];
+			i++;
+		}
+		// Fill in the blocks of unknown bases, starting from the last block that starts before the region
+		int[] starts = nBlockStarts[contig];
+		int[] ends = nBlockEnds[contig];
+		int block = Arrays.binarySearch(starts, from);
+		block = (block >= 0 ? block : Math.max(0, -block - 2));
+		for (; (block < starts.length) && (starts[block] < end); block++) {
+			for (int o = Math.max(starts[block], from); o < Math.min(ends[block], end); o++) {
+				retval[o - from] = 'N';
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * Close the .2bit file. The mapped memory is released when it is garbage collected.
+	 */
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * Convert a fasta file to a .2bit file. Any base other than A, C, G or T is stored as N, and soft-masking is not kept.
+	 * <p>
+	 * Usage: java TwoBitReference &lt;genome.fasta[.gz]&gt; &lt;genome.2bit&gt;
+	 *
+	 * @param args the fasta file and the .2bit file to write
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length != 2) {
+			System.err.println("Usage: java TwoBitReference <genome.fasta[.gz]> <genome.2bit>");
+			System.exit(1);
+		}
+		long startTime = System.currentTimeMillis();
+		List<Sequence> sequences = readSequences(args[0]);
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(args[1]), 1 << 20)) {
+			write(args[0], sequences, out);
+		}
+		System.err.println("Wrote " + sequences.size() + " sequences in " + (System.currentTimeMillis() - startTime) + " ms");
+	}
+
+	/**
+	 * The name, length and unknown bases of a sequence in a fasta file, found by reading it once before writing the .2bit file, as the .2bit header needs the sizes of all the sequences.
+	 */
+	private static class Sequence
+	{
+		private String name;
+		private int length = 0;
+		private int[] nBlocks = new int[8];
+		private int nBlockCount = 0;
+
+		private Sequence(String name) {
+			this.name = name;
+		}
+
+		private void addUnknown(int position) {
+			if ((nBlockCount > 0) && (nBlocks[nBlockCount * 2 - 1] == position)) {
+				nBlocks[nBlockCount * 2 - 1]++;
+			} else {
+				if (nBlockCount * 2 == nBlocks.length) {
+					nBlocks = Arrays.copyOf(nBlocks, nBlocks.length * 2);
+				}
+				nBlocks[nBlockCount * 2] = position;
+				nBlocks[nBlockCount * 2 + 1] = position + 1;
+				nBlockCount++;
+			}
+		}
+
+		private long getRecordSize() {
+			return 16 + 8L * nBlockCount + (length + 3) / 4;
+		}
+	}
+
+	private static boolean isBase(int c) {
+		return (c == 'A') || (c == 'C') || (c == 'G') || (c == 'T') || (c == 'a') || (c == 'c') || (c == 'g') || (c == 't');
+	}
+
+	private static List<Sequence> readSequences(String fasta) throws IOException {
+		List<Sequence> retval = new ArrayList<Sequence>();
+		Sequence sequence = null;
+		try (BufferedReader in = TranscriptLoader.openText(fasta)) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith(">")) {
+					sequence = new Sequence(line.substring(1).trim().split("\\s+")[0]);
+					retval.add(sequence);
+				} else if (sequence != null) {
+					for (int i = 0; i < line.length(); i++) {
+						if (!isBase(line.charAt(i))) {
+							sequence.addUnknown(sequence.length);
+						}
+						sequence.length++;
+					}
+				}
+			}
+		}
+		return retval;
+	}
+
+	private static void write(String fasta, List<Sequence> sequences, OutputStream out) throws IOException {
+		long indexSize = 0;
+		long dataSize = 0;
+		for (Sequence sequence : sequences) {
+			if (sequence.name.length() > 255) {
+				throw new IOException("Sequence name " + sequence.name + " is too long for a .2bit file");
+			}
+			indexSize += 1 + sequence.name.length() + 4;
+			dataSize += sequence.getRecordSize();
+		}
+		// Files over 4GB need 64-bit offsets, which is version 1 of the format
+		int version = (16 + indexSize + dataSize > 0xffffffffL ? 1 : 0);
+		long offset = 16 + indexSize + (version == 1 ? 4L * sequences.size() : 0);
+		writeInt(out, SIGNATURE);
+		writeInt(out, version);
+		writeInt(out, sequences.size());
+		writeInt(out, 0);
+		for (Sequence sequence : sequences) {
+			out.write(sequence.name.length());
+			for (int i = 0; i < sequence.name.length(); i++) {
+				out.write(sequence.name.charAt(i));
+			}
+			writeInt(out, (int) offset);
+			if (version == 1) {
+				writeInt(out, (int) (offset >>> 32));
+			}
+			offset += sequence.getRecordSize();
+		}
+		int[] codes = new int[256];
+		codes['C'] = codes['c'] = 1;
+		codes['A'] = codes['a'] = 2;
+		codes['G'] = codes['g'] = 3;
+		try (BufferedReader in = TranscriptLoader.openText(fasta)) {
+			String line = in.readLine();
+			for (Sequence sequence : sequences) {
+				while (!line.startsWith(">")) {
+					line = in.readLine();
+				}
+				writeInt(out, sequence.length);
+				writeInt(out, sequence.nBlockCount);
+				for (int i = 0; i < sequence.nBlockCount; i++) {
+					writeInt(out, sequence.nBlocks[i * 2]);
+				}
+				for (int i = 0; i < sequence.nBlockCount; i++) {
+					writeInt(out, sequence.nBlocks[i * 2 + 1] - sequence.nBlocks[i * 2]);
+				}
+				// No mask blocks, then a reserved word
+				writeInt(out, 0);
+				writeInt(out, 0);
+				int packed = 0;
+				int count = 0;
+				while (((line = in.readLine()) != null) && (!line.startsWith(">"))) {
+					for (int i = 0; i < line.length(); i++) {
+						// Unknown bases are stored as T, and masked by the N blocks
+						char c = line.charAt(i);
+						packed = (packed << 2) | (c < 256 ? codes[c] : 0);
+						if ((++count & 3) == 0) {
+							out.write(packed);
+							packed = 0;
+						}
+					}
+				}
+				if ((count & 3) != 0) {
+					out.write(packed << (2 * (4 - (count & 3))));
+				}
+			}
+		}
+	}
+
+	private static void writeInt(OutputStream out, int value) throws IOException {
+		out.write(value);
+		out.write(value >>> 8);
+		out.write(value >>> 16);
+		out.write(value >>> 24);
+	}
+}
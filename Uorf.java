@@ -1,5 +1,6 @@
 import htsjdk.samtools.reference.*;
 import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -59,6 +60,7 @@ public class Uorf implements Comparable<Uorf>
 	 */
 	public static class FivePrimeUtr
 	{
+		private String name;
 		private boolean forwardStrand;
 		private List<FivePrimeUtrExon> exons;
 
@@ -69,10 +71,31 @@ public class Uorf implements Comparable<Uorf>
 		 * @param exons a List of FivePrimeUtrExon objects describing (in exon number order) the regions that are part of the 5-prime UTR
 		 */
 		public FivePrimeUtr(boolean forwardStrand, List<FivePrimeUtrExon> exons) {
+			this(null, forwardStrand, exons);
+		}
+
+		/**
+		 * Creates a new 5-prime UTR with a name, such as the transcript ID.
+		 *
+		 * @param name the name of the transcript, used to label results, or null
+		 * @param forwardStrand true if the gene is on the forward strand of the chromosome, false for the reverse strand
+		 * @param exons a List of FivePrimeUtrExon objects describing (in exon number order) the regions that are part of the 5-prime UTR
+		 */
+		public FivePrimeUtr(String name, boolean forwardStrand, List<FivePrimeUtrExon> exons) {
+			this.name = name;
 			this.forwardStrand = forwardStrand;
 			this.exons = exons;
 		}
 
+		/**
+		 * Returns the name of the transcript, or null if none was given.
+		 *
+		 * @return a String
+		 */
+		public String getName() {
+			return name;
+		}
+
 		public boolean getForwardStrand() {
 			return forwardStrand;
 		}
@@ -129,153 +152,83 @@ public class Uorf implements Comparable<Uorf>
 	 * @return a UorfResult object containing the results
 	 */
 	public static UorfResult calculateUorfEffect(IndexedFastaSequenceFile reference, FivePrimeUtr fivePrimeUtr, String chr, int pos, String ref, String alt) {
-		if (fivePrimeUtr == null) {
-			// Cannot create a result without a FivePrimeUtr
-			return new UorfResult("", false, null, null, null, null);
-		}
-		FivePrimeUtrExon overlaps = null;
-		// Find the exon that contains the variant
-		for (FivePrimeUtrExon exon : fivePrimeUtr.getExons()) {
-			if (exon.getChr().equals(chr) && (exon.getStart() <= pos) && (exon.getEnd() >= pos + ref.length() - 1)) {
-				overlaps = exon;
-			}
-		}
-		if (overlaps == null) {
-			// Variant is not in the 5-prime UTR
-			return new UorfResult("", false, null, null, null, null);
-		}
-		String refBases = "";
-		String altBases = "";
-		// Build a base string for the 5-prime UTR before and after the variant, after splicing
-		if (fivePrimeUtr.getForwardStrand()) {
-			for (FivePrimeUtrExon exon : fivePrimeUtr.getExons()) {
-				ReferenceSequence referenceSeq = reference.getSubsequenceAt(exon.getChr(), exon.getStart(), exon.getEnd());
-				String referenceString = (new String(referenceSeq.getBases())).toUpperCase();
-				refBases = refBases + referenceString;
-				if (overlaps == exon) {
-					// Need to apply variant.
-					String altExon = referenceString.substring(0, pos - exon.getStart()) + alt + referenceString.substring(pos - exon.getStart() + ref.length());
-					altBases = altBases + altExon;
-				} else {
-					altBases = altBases + referenceString;
-				}
-			}
-		} else {
-			for (FivePrimeUtrExon exon : fivePrimeUtr.getExons()) {
-				ReferenceSequence referenceSeq = reference.getSubsequenceAt(exon.getChr(), exon.getStart(), exon.getEnd());
-				String referenceString = (new String(referenceSeq.getBases())).toUpperCase();
-				refBases = refBases + reverse(referenceString);
-				if (overlaps == exon) {
-					// Need to apply variant.
-					String altExon = referenceString.substring(0, pos - exon.getStart()) + alt + referenceString.substring(pos - exon.getStart() + ref.length());
-					altBases = altBases + reverse(altExon);
-				} else {
-					altBases = altBases + reverse(referenceString);
-				}
-			}
-		}
-		// Find the ORFs in both versions of the 5-prime UTR
-		List<Uorf> refUorfs = new ArrayList<Uorf>();
-		List<Uorf> altUorfs = new ArrayList<Uorf>();
-		String refBase0 = findUorfs(refBases, refBases.length() % 3, refUorfs);
-		String altBase0 = findUorfs(altBases, altBases.length() % 3, altUorfs);
-		String refBase1 = findUorfs(refBases, (refBases.length() + 1) % 3, refUorfs);
-		String altBase1 = findUorfs(altBases, (altBases.length() + 1) % 3, altUorfs);
-		String refBase2 = findUorfs(refBases, (refBases.length() + 2) % 3, refUorfs);
-		String altBase2 = findUorfs(altBases, (altBases.length() + 2) % 3, altUorfs);
-		String[] visualisations = new String[] {refBase0, altBase0, refBase1, altBase1, refBase2, altBase2};
-		// Sort the ORF lists by consequence. The most "damaging" ORF will be first in each list
-		Collections.sort(refUorfs);
-		Collections.sort(altUorfs);
-		// Find the most "damaging" ORF in the reference and the alternate alleles
-		Uorf refUorf = null;
-		Uorf altUorf = null;
-		if (!refUorfs.isEmpty()) {
-			refUorf = refUorfs.get(0);
-		}
-		if (!altUorfs.isEmpty()) {
-			altUorf = altUorfs.get(0);
+		return getCalculator(reference, null).calculateUorfEffect(fivePrimeUtr, chr, pos, ref, alt);
+	}
+
+	/**
+	 * Calculate the uORFS in the 5-prime UTR in both reference and variant cases, then calculate any differences between the two.
+	 * The spliced reference sequence of the 5-prime UTR and the uORFs in it are taken from a cache if possible, so that the reference genome only needs to be read and searched once for each transcript. Only the alternate sequence is searched for each variant.
+	 *
+	 * @param reference a htsjdk.samtools.reference.IndexedFastaSequenceFile object to allow the reference genome to be read
+	 * @param cache a UtrSequenceCache holding spliced UTR sequences from the same reference genome, or null to always read the reference genome
+	 * @param fivePrimeUtr a FivePrimeUtr object describing where the UTR is
+	 * @param chr the chromosome of the variant
+	 * @param pos the position of the variant
+	 * @param ref the reference allele in the area where the variant is
+	 * @param alt the alternate allele in the area where the variant is
+	 *
+	 * @return a UorfResult object containing the results
+	 */
+	public static UorfResult calculateUorfEffect(IndexedFastaSequenceFile reference, UtrSequenceCache cache, FivePrimeUtr fivePrimeUtr, String chr, int pos, String ref, String alt) {
+		return getCalculator(reference, cache).calculateUorfEffect(fivePrimeUtr, chr, pos, ref, alt);
+	}
+
+	/**
+	 * Calculate the uORFS in the 5-prime UTR in both reference and variant cases, then calculate any differences between the two.
+	 * The spliced reference sequence of the 5-prime UTR and the uORFs in it are taken from a cache if possible, so that the reference genome only needs to be read and searched once for each transcript. Only the alternate sequence is searched for each variant.
+	 * This is the same as calling UorfCalculator.calculateUorfEffect, on a calculator with this reference genome and cache. The calculator is reused while the same reference genome and cache are passed in, but callers that make many calls, especially with several reference genomes or caches, should build their own UorfCalculator once instead.
+	 *
+	 * @param reference a ReferenceProvider to allow the reference genome to be read, such as a MappedFastaReference, which can be shared between threads
+	 * @param cache a UtrSequenceCache holding spliced UTR sequences from the same reference genome, or null to always read the reference genome
+	 * @param fivePrimeUtr a FivePrimeUtr object describing where the UTR is
+	 * @param chr the chromosome of the variant
+	 * @param pos the position of the variant
+	 * @param ref the reference allele in the area where the variant is
+	 * @param alt the alternate allele in the area where the variant is
+	 *
+	 * @return a UorfResult object containing the results
+	 */
+	public static UorfResult calculateUorfEffect(ReferenceProvider reference, UtrSequenceCache cache, FivePrimeUtr fivePrimeUtr, String chr, int pos, String ref, String alt) {
+		return getCalculator(reference, cache).calculateUorfEffect(fivePrimeUtr, chr, pos, ref, alt);
+	}
+
+	/**
+	 * The calculator last used by the static calculateUorfEffect methods, with the reference genome and cache that it was made for.
+	 */
+	private static volatile StaticCalculator staticCalculator;
+
+	/**
+	 * Returns a calculator for the static calculateUorfEffect methods, reusing the last one if it was made for the same reference genome and cache.
+	 *
+	 * @param reference an IndexedFastaSequenceFile or a ReferenceProvider
+	 * @param cache a UtrSequenceCache, or null
+	 *
+	 * @return a UorfCalculator
+	 */
+	private static UorfCalculator getCalculator(Object reference, UtrSequenceCache cache) {
+		StaticCalculator retval = staticCalculator;
+		if ((retval == null) || (retval.reference != reference) || (retval.cache != cache)) {
+			ReferenceProvider provider = (reference instanceof IndexedFastaSequenceFile ? new HtsjdkReference((IndexedFastaSequenceFile) reference) : (ReferenceProvider) reference);
+			retval = new StaticCalculator(reference, cache, new UorfCalculator(provider, cache));
+			staticCalculator = retval;
 		}
-		// This is the length change of the InDel, so we can allow for changes in distance from the gene
-		int lengthChange = Math.abs(ref.length() - alt.length());
-		// Work out the consequence of the change
-		boolean altStats = true;
-		String effect = "No change";
-		if (refUorf == null) {
-			if (altUorf == null) {
-				return new UorfResult("", false, null, null, null, visualisations);
-			} else if (altUorf.getType() == UorfType.FRAMESHIFT) {
-				effect = "out-of-frame_oORF";
-			} else if (altUorf.getType() == UorfType.EXTENDING) {
-				effect = "CDS_elongated";
-			} else {
-				effect = "uORF_created";
-			}
-		} else if (refUorf.getType() == UorfType.FRAMESHIFT) {
-			if (altUorf == null) {
-				effect = "loss_out-of-frame_oORF";
-				altStats = false;
-			} else if (altUorf.getType() == UorfType.FRAMESHIFT) {
-				if (altUorf.getStrength() > refUorf.getStrength()) {
-					effect = "stronger_out-of-frame_oORF";
-				} else if (altUorf.getStrength() < refUorf.getStrength()) {
-					effect = "loss_weaker_out-of-frame_oORF";
-					altStats = false;
-				} else if (altUorf.getDistance() < refUorf.getDistance() - lengthChange) {
-					effect = "closer_out-of-frame_oORF";
-				} else if (altUorf.getDistance() > refUorf.getDistance() + lengthChange) {
-					effect = "loss_further_out-of-frame_oORF";
-					altStats = false;
-				}
-			} else {
-				effect = "loss_out-of-frame_oORF";
-				altStats = false;
-			}
-		} else if (refUorf.getType() == UorfType.EXTENDING) {
-			if (altUorf == null) {
-				effect = "loss_CDS_elongated";
-				altStats = false;
-			} else if (altUorf.getType() == UorfType.FRAMESHIFT) {
-				effect = "out-of-frame_oORF";
-			} else if (altUorf.getType() == UorfType.EXTENDING) {
-				if (altUorf.getStrength() > refUorf.getStrength()) {
-					effect = "stronger_CDS_elongated";
-				} else if (altUorf.getStrength() < refUorf.getStrength()) {
-					effect = "loss_weaker_CDS_elongated";
-					altStats = false;
-				} else if (altUorf.getDistance() < refUorf.getDistance() - lengthChange) {
-					effect = "closer_CDS_elongated";
-				} else if (altUorf.getDistance() > refUorf.getDistance() + lengthChange) {
-					effect = "loss_further_CDS_elongated";
-					altStats = false;
-				}
-			} else {
-				effect = "loss_CDS_elongated";
-				altStats = false;
-			}
-		} else {
-			if (altUorf == null) {
-				effect = "loss_uORF";
-				altStats = false;
-			} else if (altUorf.getType() == UorfType.FRAMESHIFT) {
-				effect = "out-of-frame_oORF";
-			} else if (altUorf.getType() == UorfType.EXTENDING) {
-				effect = "CDS_elongated";
-			} else {
-				if (altUorf.getStrength() > refUorf.getStrength()) {
-					effect = "stronger_uORF_created";
-				} else if (altUorf.getStrength() < refUorf.getStrength()) {
-					effect = "loss_weaker_uORF";
-					altStats = false;
-				} else if (altUorf.getDistance() < refUorf.getDistance() - lengthChange) {
-					effect = "closer_uORF_created";
-				} else if (altUorf.getDistance() > refUorf.getDistance() + lengthChange) {
-					effect = "loss_further_uORF";
-					altStats = false;
-				}
-			}
+		return retval.calculator;
+	}
+
+	/**
+	 * A calculator made by getCalculator, with what it was made from.
+	 */
+	private static class StaticCalculator
+	{
+		private final Object reference;
+		private final UtrSequenceCache cache;
+		private final UorfCalculator calculator;
+
+		private StaticCalculator(Object reference, UtrSequenceCache cache, UorfCalculator calculator) {
+			this.reference = reference;
+			this.cache = cache;
+			this.calculator = calculator;
 		}
-		return new UorfResult(effect, !altStats, altStats ? altUorf : refUorf, refUorfs, altUorfs, visualisations);
 	}
 
 	/**
@@ -287,7 +240,9 @@ public class Uorf implements Comparable<Uorf>
 		private boolean loss;
 		private Uorf uorf;
 		private List<Uorf> refUorfs, altUorfs;
-		private String[] visualisations;
+		private volatile String[] visualisations;
+		private byte[] refBases, altBases;
+		private int variantStart, refAlleleLength;
 
 		public UorfResult(String effect, boolean loss, Uorf uorf, List<Uorf> refUorfs, List<Uorf> altUorfs, String[] visualisations) {
 			this.effect = effect;
@@ -298,6 +253,22 @@ public class Uorf implements Comparable<Uorf>
 			this.visualisations = visualisations;
 		}
 
+		/**
+		 * Creates a result with the visualisations built when they are first asked for, from the spliced sequences.
+		 *
+		 * @param refBases the spliced reference 5-prime UTR, which must not be modified
+		 * @param altBases the spliced alternate 5-prime UTR, which must not be modified
+		 * @param variantStart the position of the variant in both sequences
+		 * @param refAlleleLength the length of the reference allele
+		 */
+		UorfResult(String effect, boolean loss, Uorf uorf, List<Uorf> refUorfs, List<Uorf> altUorfs, byte[] refBases, byte[] altBases, int variantStart, int refAlleleLength) {
+			this(effect, loss, uorf, refUorfs, altUorfs, null);
+			this.refBases = refBases;
+			this.altBases = altBases;
+			this.variantStart = variantStart;
+			this.refAlleleLength = refAlleleLength;
+		}
+
 		/**
 		 * Returns a text description of the effect on uORFs of a variant.
 		 *
@@ -328,7 +299,7 @@ public class Uorf implements Comparable<Uorf>
 		/**
 		 * Returns the full list of uORFs found in the reference 5-prime UTR.
 		 *
-		 * @return a List of Uorf objects
+		 * @return a List of Uorf objects, or null if the variant is not in the UTR or the result came from a summary-only UorfCalculator
 		 */
 		public List<Uorf> getRefUorfs() {
 			if (refUorfs == null) {
@@ -340,7 +311,7 @@ public class Uorf implements Comparable<Uorf>
 		/**
 		 * Returns the full list of uORFs found in the alternate 5-prime UTR.
 		 *
-		 * @return a List of Uorf objects
+		 * @return a List of Uorf objects, or null if the variant is not in the UTR or the result came from a summary-only UorfCalculator
 		 */
 		public List<Uorf> getAltUorfs() {
 			if (altUorfs == null) {
@@ -353,15 +324,28 @@ public class Uorf implements Comparable<Uorf>
 		 * Returns a visualisation of the uORFs found in the reference and alternate 5-prime UTRs.
 		 * This is a six-element array. Positions 0, 2, and 4 refer to the reference 5-prime UTR, and positions 1, 3, and 5 refer to the alternate 5-prime UTR. The three visualisations show the uORFs found in the three coding frames.
 		 * Each String shows the bases in the 5-prime UTR, separated by spaces into codons. ORFs are shown by capitalising the bases. The number replacing the space just after the ATG codon at the beginning of an ORF is the strength of the start codon, from 1 (weak) to 3 (strong).
+		 * The visualisations are built the first time that this is called, so callers that do not display them do not pay for them.
 		 *
 		 * @return an array of Strings
 		 */
 		public String[] getVisualisations() {
-			return visualisations;
+			String[] retval = visualisations;
+			if ((retval == null) && (altBases != null)) {
+				// Two threads may both build the visualisations, but they will be identical
+				UorfScanner.Frame[] refFrames = UorfScanner.scanFrames(refBases, true);
+				String[] altVisualisations = UorfScanner.findAltUorfs(refFrames, refBases.length, altBases, variantStart, refAlleleLength, new ArrayList<Uorf>(), true);
+				retval = new String[] {refFrames[0].getVisualisation(), altVisualisations[0], refFrames[1].getVisualisation(), altVisualisations[1], refFrames[2].getVisualisation(), altVisualisations[2]};
+				visualisations = retval;
+			}
+			return retval;
 		}
 	}
 
-	private static String findUorfs(String bases, int offset, List<Uorf> uorfs) {
+	/**
+	 * Find the uORFs in one frame of a whole sequence, and return the visualisation of the frame.
+	 * The faster search in UorfScanner is checked against this by UorfDifferentialCheck.
+	 */
+	static String findUorfs(String bases, int offset, List<Uorf> uorfs) {
 		StringBuilder visualisation = new StringBuilder();
 		if (offset > 0) {
 			visualisation.append(bases.substring(0, offset).toLowerCase() + " ");
@@ -408,23 +392,80 @@ public class Uorf implements Comparable<Uorf>
 		return visualisation.toString();
 	}
 
-	private static String reverse(String bases) {
-		StringBuilder retval = new StringBuilder();
-		for (int i = bases.length() - 1; i >= 0; i--) {
+	/**
+	 * The upper-case complement of each IUPAC nucleotide code, upper or lower case, or 0 for anything else. U complements to A, N to N, and the gap characters to themselves.
+	 */
+	private static final byte[] COMPLEMENT = new byte[256];
+
+	static {
+		String codes = "ACGTURYKMSWBDHVN-.";
+		String complements = "TGCAAYRMKSWVHDBN-.";
+		for (int i = 0; i < codes.length(); i++) {
+			COMPLEMENT[codes.charAt(i)] = (byte) complements.charAt(i);
+			COMPLEMENT[Character.toLowerCase(codes.charAt(i))] = (byte) complements.charAt(i);
+		}
+	}
+
+	/**
+	 * Returns the reverse complement of a sequence, upper-cased.
+	 *
+	 * @param bases the sequence, which may contain any IUPAC nucleotide codes, in upper or lower case
+	 *
+	 * @return a String
+	 */
+	static String reverse(String bases) {
+		byte[] retval = new byte[bases.length()];
+		reverse(bases, retval, 0);
+		return new String(retval, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Reverse complement a sequence into part of a byte array, upper-cased, without creating any objects.
+	 *
+	 * @param bases the sequence, which may contain any IUPAC nucleotide codes, in upper or lower case
+	 * @param into the array to write the reverse complement to
+	 * @param offset the position in the array to start writing at
+	 */
+	static void reverse(String bases, byte[] into, int offset) {
+		int last = offset + bases.length() - 1;
+		for (int i = 0; i < bases.length(); i++) {
 			char c = bases.charAt(i);
-			if (c == 'A') {
-				retval.append("T");
-			} else if (c == 'C') {
-				retval.append("G");
-			} else if (c == 'G') {
-				retval.append("C");
-			} else if (c == 'T') {
-				retval.append("A");
-			} else {
+			byte complement = (c < 256 ? COMPLEMENT[c] : 0);
+			if (complement == 0) {
 				throw new RuntimeException("Invalid base sequence " + bases);
 			}
+			into[last - i] = complement;
+		}
+	}
+
+	/**
+	 * Reverse complement part of a byte array in place, upper-cased, in one pass that works in from both ends.
+	 * If the sequence contains something other than an IUPAC nucleotide code, then it is left partly reversed.
+	 *
+	 * @param bases the array holding the sequence, which may contain any IUPAC nucleotide codes, in upper or lower case
+	 * @param from the position of the first base of the sequence
+	 * @param to the position after the last base of the sequence
+	 */
+	static void reverse(byte[] bases, int from, int to) {
+		int i = from;
+		int j = to - 1;
+		for (; i < j; i++, j--) {
+			byte first = COMPLEMENT[bases[i] & 0xff];
+			byte last = COMPLEMENT[bases[j] & 0xff];
+			if ((first == 0) || (last == 0)) {
+				throw new RuntimeException("Invalid base sequence " + new String(bases, from, to - from, StandardCharsets.ISO_8859_1));
+			}
+			bases[i] = last;
+			bases[j] = first;
+		}
+		if (i == j) {
+			// The middle base of an odd-length sequence is only complemented
+			byte middle = COMPLEMENT[bases[i] & 0xff];
+			if (middle == 0) {
+				throw new RuntimeException("Invalid base sequence " + new String(bases, from, to - from, StandardCharsets.ISO_8859_1));
+			}
+			bases[i] = middle;
 		}
-		return retval.toString();
 	}
 
 	private int distance;
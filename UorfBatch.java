@@ -0,0 +1,516 @@
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Annotate every record in a VCF file with the effect of the variant on uORFs, writing the VCF back out with extra INFO fields.
+ * The reference genome is opened once and shared by all records and threads, so a whole cohort VCF can be annotated in one process.
+ * The records can be annotated by several threads at once, and are written out in their original order.
+ */
+public class UorfBatch
+{
+	/**
+	 * The INFO header lines added to the output VCF. Each field has one value for each combination of alternate allele and transcript that has a uORF effect, in the same order.
+	 */
+	public static final String[] INFO_HEADERS = new String[] {
+		"##INFO=<ID=UORF_ALLELE,Number=.,Type=String,Description=\"Alternate allele that the uORF annotation refers to\">",
+		"##INFO=<ID=UORF_TRANSCRIPT,Number=.,Type=String,Description=\"Transcript whose 5-prime UTR contains the variant\">",
+		"##INFO=<ID=UORF_EFFECT,Number=.,Type=String,Description=\"Effect of the variant on uORFs\">",
+		"##INFO=<ID=UORF_LOSS,Number=.,Type=Integer,Description=\"1 if the uORF change weakens the uORF effect, 0 otherwise\">",
+		"##INFO=<ID=UORF_STRENGTH,Number=.,Type=String,Description=\"Strength of the start codon of the most relevant uORF\">",
+		"##INFO=<ID=UORF_DISTANCE,Number=.,Type=Integer,Description=\"Distance of the start codon of the most relevant uORF from the start of the gene\">",
+		"##INFO=<ID=UORF_STOP_DISTANCE,Number=.,Type=Integer,Description=\"Number of bases between the end of the most relevant uORF and the start of the gene\">"
+	};
+
+	/**
+	 * Annotate a VCF file, according to the command-line arguments.
+	 * <ul><li>Optionally, "-t" followed by the number of annotation threads to use. The default is the number of processors.</li>
+	 *     <li>Optionally, "-c" followed by the size of the UTR sequence cache in megabytes. The default is 256.</li>
+	 *     <li>A fasta file containing the reference genome, which is memory-mapped if it is not compressed and has a .fai index (see ReferenceProvider.open).</li>
+	 *     <li>A file describing the transcripts, in GTF, GFF3, UTR pack or 5-prime UTR table format (see TranscriptLoader). A UTR pack holds the sequences of the UTRs, so the reference genome can then be given as "-", and is not read.</li>
+	 *     <li>The input VCF file, which may be gzip or bgzip compressed, or "-" for standard input.</li>
+	 *     <li>The output VCF file, which is bgzip compressed if the name ends in ".gz", or "-" for standard output.</li>
+	 * </ul>
+	 * For instance:<br>
+	 * java UorfBatch -t 16 human_g1k_v37.fasta gencode.v19.annotation.gtf.gz cohort.vcf.gz cohort.uorf.vcf.gz<br>
+	 * If Java is started with "-Duorf.timings=true", the time spent in each stage is printed at the end (see UorfTimings).
+	 * While it runs, the progress, queue depths and cache can be watched with jconsole (see UorfMonitor).
+	 *
+	 * @param args the command-line arguments
+	 */
+	public static void main(String[] args) throws Exception {
+		int threads = Runtime.getRuntime().availableProcessors();
+		long cacheBytes = UtrSequenceCache.DEFAULT_MAX_BYTES;
+		int argStart = 0;
+		while ((args.length > argStart + 1) && args[argStart].startsWith("-") && (args[argStart].length() > 1)) {
+			if ("-t".equals(args[argStart])) {
+				threads = Integer.parseInt(args[argStart + 1]);
+			} else if ("-c".equals(args[argStart])) {
+				cacheBytes = Long.parseLong(args[argStart + 1]) * 1024 * 1024;
+			} else {
+				break;
+			}
+			argStart += 2;
+		}
+		if (args.length - argStart != 4) {
+			System.err.println("Usage: java UorfBatch [-t threads] [-c cache_megabytes] <genome.fasta> <annotation> <input.vcf[.gz]> <output.vcf[.gz]>");
+			System.exit(1);
+		}
+		UorfBatch batch = new UorfBatch(new FivePrimeUtrIndex(TranscriptLoader.load(new File(args[argStart + 1]))), new UtrSequenceCache(cacheBytes));
+		new UorfMonitor(batch).register("batch");
+		long start = System.currentTimeMillis();
+		try (ReferenceProvider reference = ("-".equals(args[argStart]) ? null : ReferenceProvider.open(new File(args[argStart]))); BufferedReader in = TranscriptLoader.openText(args[argStart + 2]); Writer out = createVcf(args[argStart + 3])) {
+			batch.annotate(reference, threads, in, out);
+		}
+		System.err.println("Annotated " + batch.getRecordCount() + " records, " + batch.getAnnotatedCount() + " with uORF effects, in " + (System.currentTimeMillis() - start) + " ms using " + threads + " threads");
+		System.err.println(batch.getCache());
+		if (UorfTimings.ENABLED) {
+			System.err.println(UorfTimings.report());
+		}
+	}
+
+	/**
+	 * The number of VCF records passed between threads at a time.
+	 */
+	public static final int CHUNK_SIZE = 1000;
+
+	private FivePrimeUtrIndex utrIndex;
+	private UtrSequenceCache cache;
+	private LongAdder recordCount = new LongAdder();
+	private LongAdder annotatedCount = new LongAdder();
+	private UorfMetrics metrics = new UorfMetrics();
+	// The calculator for the reference genome of the last call, which is almost always the same one
+	private volatile UorfCalculator calculator;
+	// The queues of the pipeline that is running, if there is one, so that their depths can be monitored
+	private volatile BlockingQueue<Chunk> workerQueue, writerQueue;
+
+	/**
+	 * Creates a new batch annotator, with a UTR sequence cache of the default size.
+	 *
+	 * @param utrs a List of FivePrimeUtr objects, which should all have names
+	 */
+	public UorfBatch(List<Uorf.FivePrimeUtr> utrs) {
+		this(new FivePrimeUtrIndex(utrs), new UtrSequenceCache(UtrSequenceCache.DEFAULT_MAX_BYTES));
+	}
+
+	/**
+	 * Creates a new batch annotator.
+	 *
+	 * @param utrIndex an index of FivePrimeUtr objects, which should all have names
+	 * @param cache a cache of spliced UTR sequences, which is shared by all the threads annotating records
+	 */
+	public UorfBatch(FivePrimeUtrIndex utrIndex, UtrSequenceCache cache) {
+		this.utrIndex = utrIndex;
+		this.cache = cache;
+	}
+
+	/**
+	 * Returns the cache of spliced UTR sequences.
+	 *
+	 * @return a UtrSequenceCache
+	 */
+	public UtrSequenceCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Returns the counters of the effects found and the time taken by each calculation.
+	 *
+	 * @return a UorfMetrics
+	 */
+	public UorfMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Returns the number of chunks of records waiting for a worker thread, in the pipeline that is running.
+	 *
+	 * @return an int, which is zero if there is no pipeline running
+	 */
+	public int getWorkerQueueDepth() {
+		BlockingQueue<Chunk> queue = workerQueue;
+		return (queue == null ? 0 : queue.size());
+	}
+
+	/**
+	 * Returns the number of annotated chunks of records waiting for the writer thread, in the pipeline that is running.
+	 *
+	 * @return an int, which is zero if there is no pipeline running
+	 */
+	public int getWriterQueueDepth() {
+		BlockingQueue<Chunk> queue = writerQueue;
+		return (queue == null ? 0 : queue.size());
+	}
+
+	/**
+	 * Returns the number of VCF records processed so far.
+	 *
+	 * @return a long
+	 */
+	public long getRecordCount() {
+		return recordCount.sum();
+	}
+
+	/**
+	 * Returns the number of VCF records that were given a uORF annotation so far.
+	 *
+	 * @return a long
+	 */
+	public long getAnnotatedCount() {
+		return annotatedCount.sum();
+	}
+
+	/**
+	 * Copy a VCF from the reader to the writer, adding the uORF INFO headers and annotating each record.
+	 *
+	 * @param reference the reference genome
+	 * @param in the VCF to read
+	 * @param out where to write the annotated VCF
+	 */
+	public void annotate(ReferenceProvider reference, BufferedReader in, Writer out) throws IOException {
+		String line;
+		while ((line = in.readLine()) != null) {
+			if (line.startsWith("#")) {
+				if (line.startsWith("#CHROM")) {
+					for (String header : INFO_HEADERS) {
+						out.write(header);
+						out.write('\n');
+					}
+				}
+				out.write(line);
+			} else if (!line.isEmpty()) {
+				out.write(annotateRecord(reference, line));
+			}
+			out.write('\n');
+		}
+	}
+
+	/**
+	 * Copy a VCF from the reader to the writer, adding the uORF INFO headers and annotating each record, using several threads.
+	 * The records are read in chunks by the calling thread, annotated by a pool of worker threads, and written by a writer thread, which puts the chunks back into their original order.
+	 * The queues between the threads are bounded, so that only a limited number of chunks are held in memory at any time.
+	 * All the worker threads read the same reference genome, so it should allow reads from several threads at once without blocking, like a MappedFastaReference.
+	 *
+	 * @param reference the reference genome
+	 * @param threads the number of worker threads
+	 * @param in the VCF to read
+	 * @param out where to write the annotated VCF
+	 */
+	public void annotate(ReferenceProvider reference, int threads, BufferedReader in, Writer out) throws IOException, InterruptedException {
+		String line = in.readLine();
+		while ((line != null) && line.startsWith("#")) {
+			if (line.startsWith("#CHROM")) {
+				for (String header : INFO_HEADERS) {
+					out.write(header);
+					out.write('\n');
+				}
+			}
+			out.write(line);
+			out.write('\n');
+			line = in.readLine();
+		}
+		BlockingQueue<Chunk> toWorkers = new ArrayBlockingQueue<Chunk>(threads * 2);
+		BlockingQueue<Chunk> toWriter = new LinkedBlockingQueue<Chunk>();
+		workerQueue = toWorkers;
+		writerQueue = toWriter;
+		// Limits the number of chunks between the reader and the writer, including those waiting in the reorder buffer
+		Semaphore inFlight = new Semaphore(threads * 4);
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Thread(() -> {
+				try {
+					Chunk chunk = toWorkers.take();
+					while (chunk != Chunk.END) {
+						try {
+							if (failure.get() == null) {
+								UorfEvents.BatchChunk event = new UorfEvents.BatchChunk();
+								event.begin();
+								long misses = UorfCalculator.getThreadCacheMisses();
+								int annotated = 0;
+								for (int o = 0; o < chunk.size; o++) {
+									String record = chunk.lines[o];
+									// Empty lines are copied as they are, as in the single-threaded annotate
+									if (!record.isEmpty()) {
+										chunk.lines[o] = annotateRecord(reference, record);
+									}
+									// A record without a uORF effect is returned unchanged
+									if (chunk.lines[o] != record) {
+										annotated++;
+									}
+								}
+								event.end();
+								if (event.shouldCommit()) {
+									event.chunk = chunk.number;
+									event.records = chunk.size;
+									event.annotated = annotated;
+									event.cacheMisses = UorfCalculator.getThreadCacheMisses() - misses;
+									event.commit();
+								}
+							}
+						} catch (Throwable e) {
+							failure.compareAndSet(null, e);
+						} finally {
+							// Always pass the chunk on, so that the writer never waits for it and its place in flight is released
+							toWriter.put(chunk);
+						}
+						chunk = toWorkers.take();
+					}
+				} catch (Throwable e) {
+					failure.compareAndSet(null, e);
+				}
+			}, "UorfBatch worker " + i);
+			workers[i].start();
+		}
+		Thread writer = new Thread(() -> {
+			Map<Long, Chunk> reorder = new HashMap<Long, Chunk>();
+			long next = 0;
+			try {
+				Chunk chunk = toWriter.take();
+				while (chunk != Chunk.END) {
+					reorder.put(chunk.number, chunk);
+					while ((chunk = reorder.remove(next)) != null) {
+						try {
+							if (failure.get() == null) {
+								for (int o = 0; o < chunk.size; o++) {
+									out.write(chunk.lines[o]);
+									out.write('\n');
+								}
+							}
+						} catch (Throwable e) {
+							failure.compareAndSet(null, e);
+						} finally {
+							next++;
+							inFlight.release();
+						}
+					}
+					chunk = toWriter.take();
+				}
+			} catch (Throwable e) {
+				failure.compareAndSet(null, e);
+			}
+		}, "UorfBatch writer");
+		writer.start();
+		try {
+			long number = 0;
+			while ((line != null) && (failure.get() == null)) {
+				Chunk chunk = new Chunk(number++, new String[CHUNK_SIZE], 0);
+				while ((line != null) && (chunk.size < CHUNK_SIZE)) {
+					chunk.lines[chunk.size++] = line;
+					line = in.readLine();
+				}
+				// Stop waiting for space if the writer has failed, because it may no longer release any
+				while (!inFlight.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+					if (failure.get() != null) {
+						break;
+					}
+				}
+				if (failure.get() != null) {
+					break;
+				}
+				toWorkers.put(chunk);
+			}
+		} finally {
+			for (int i = 0; i < threads; i++) {
+				toWorkers.put(Chunk.END);
+			}
+			for (int i = 0; i < threads; i++) {
+				workers[i].join();
+			}
+			toWriter.put(Chunk.END);
+			writer.join();
+			workerQueue = null;
+			writerQueue = null;
+		}
+		Throwable e = failure.get();
+		if (e instanceof IOException) {
+			throw (IOException) e;
+		} else if (e instanceof RuntimeException) {
+			throw (RuntimeException) e;
+		} else if (e instanceof Error) {
+			throw (Error) e;
+		} else if (e != null) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Returns a calculator that uses a reference genome and this annotator's cache, and counts its calculations in the metrics. The VCF annotation only uses the effect and the most relevant uORF, so the calculator only gives a summary, which creates almost no garbage.
+	 *
+	 * @param reference the reference genome
+	 *
+	 * @return a UorfCalculator
+	 */
+	private UorfCalculator getCalculator(ReferenceProvider reference) {
+		UorfCalculator retval = calculator;
+		if ((retval == null) || (retval.getReference() != reference)) {
+			retval = UorfCalculator.builder().reference(reference).cache(cache).summaryOnly(true).listener(metrics).build();
+			calculator = retval;
+		}
+		return retval;
+	}
+
+	/**
+	 * A numbered group of VCF records, passed between the threads of the annotation pipeline.
+	 */
+	private static class Chunk
+	{
+		private static final Chunk END = new Chunk(-1, null, 0);
+
+		private long number;
+		private String[] lines;
+		private int size;
+
+		private Chunk(long number, String[] lines, int size) {
+			this.number = number;
+			this.lines = lines;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * Annotate a single VCF data line. The variant is checked against every 5-prime UTR that it lies in, for each alternate allele.
+	 *
+	 * @param reference the reference genome
+	 * @param line a VCF data line
+	 *
+	 * @return the line with uORF INFO fields added, or the same line object if there is no uORF effect
+	 */
+	public String annotateRecord(ReferenceProvider reference, String line) {
+		recordCount.increment();
+		// Find the end of the first eight columns, leaving any sample columns untouched
+		int[] tabs = new int[8];
+		int tab = -1;
+		for (int i = 0; i < 8; i++) {
+			tab = line.indexOf('\t', tab + 1);
+			if (tab == -1) {
+				if (i == 7) {
+					tab = line.length();
+				} else {
+					throw new IllegalArgumentException("Invalid VCF line: " + line);
+				}
+			}
+			tabs[i] = tab;
+		}
+		String chr = line.substring(0, tabs[0]);
+		int pos = Integer.parseInt(line.substring(tabs[0] + 1, tabs[1]));
+		String ref = line.substring(tabs[2] + 1, tabs[3]);
+		if (!isBases(ref)) {
+			return line;
+		}
+		List<Uorf.FivePrimeUtr> utrs = utrIndex.getOverlapping(chr, pos, pos + ref.length() - 1);
+		if (utrs.isEmpty()) {
+			return line;
+		}
+		String[] alts = line.substring(tabs[3] + 1, tabs[4]).split(",");
+		UorfCalculator calculator = getCalculator(reference);
+		StringBuilder alleles = null, transcripts = null, effects = null, losses = null, strengths = null, distances = null, stopDistances = null;
+		for (Uorf.FivePrimeUtr utr : utrs) {
+			for (String alt : alts) {
+				if (!isBases(alt)) {
+					continue;
+				}
+				Uorf.UorfResult result;
+				try {
+					result = calculator.calculateUorfEffect(utr, chr, pos, ref, alt);
+				} catch (RuntimeException e) {
+					System.err.println("Could not calculate uORF effect of " + chr + ":" + pos + " " + ref + ">" + alt + " in " + utr.getName() + ": " + e.getMessage());
+					continue;
+				}
+				if ("".equals(result.getEffect())) {
+					continue;
+				}
+				if (alleles == null) {
+					alleles = new StringBuilder(";UORF_ALLELE=");
+					transcripts = new StringBuilder(";UORF_TRANSCRIPT=");
+					effects = new StringBuilder(";UORF_EFFECT=");
+					losses = new StringBuilder(";UORF_LOSS=");
+					strengths = new StringBuilder(";UORF_STRENGTH=");
+					distances = new StringBuilder(";UORF_DISTANCE=");
+					stopDistances = new StringBuilder(";UORF_STOP_DISTANCE=");
+				} else {
+					alleles.append(',');
+					transcripts.append(',');
+					effects.append(',');
+					losses.append(',');
+					strengths.append(',');
+					distances.append(',');
+					stopDistances.append(',');
+				}
+				alleles.append(alt);
+				transcripts.append(utr.getName());
+				// VCF does not allow white-space in INFO values, so "No change" becomes "No_change"
+				effects.append(result.getEffect().replace(' ', '_'));
+				losses.append(result.isLoss() ? '1' : '0');
+				strengths.append(result.getUorf().getStrengthString());
+				distances.append(result.getUorf().getDistance());
+				stopDistances.append(result.getUorf().getStopDistance());
+			}
+		}
+		if (alleles == null) {
+			return line;
+		}
+		annotatedCount.increment();
+		StringBuilder retval = new StringBuilder(line.length() + 256);
+		String info = line.substring(tabs[6] + 1, tabs[7]);
+		retval.append(line, 0, tabs[6] + 1);
+		if (".".equals(info) || info.isEmpty()) {
+			// Drop the leading semicolon of the first field
+			retval.append(alleles, 1, alleles.length());
+		} else {
+			retval.append(info).append(alleles);
+		}
+		retval.append(transcripts).append(effects).append(losses).append(strengths).append(distances).append(stopDistances);
+		retval.append(line, tabs[7], line.length());
+		return retval.toString();
+	}
+
+	private static boolean isBases(String allele) {
+		if (allele.isEmpty()) {
+			return false;
+		}
+		for (int i = 0; i < allele.length(); i++) {
+			char c = allele.charAt(i);
+			if ((c != 'A') && (c != 'C') && (c != 'G') && (c != 'T')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Create a VCF file for writing. If the name ends with ".gz" or ".bgz" then the file is bgzip compressed, and "-" means standard output.
+	 *
+	 * @param name the file name
+	 *
+	 * @return a Writer
+	 */
+	public static Writer createVcf(String name) throws IOException {
+		OutputStream out;
+		if ("-".equals(name)) {
+			out = System.out;
+		} else if (name.endsWith(".gz") || name.endsWith(".bgz")) {
+			out = new BlockCompressedOutputStream(new File(name));
+		} else {
+			out = new FileOutputStream(name);
+		}
+		return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.ISO_8859_1), 1 << 16);
+	}
+}
@@ -0,0 +1,490 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import jdk.jfr.EventType;
+
+/**
+ * Calculates the effects of variants on the uORFs in 5-prime UTRs, keeping the reference genome, the UTR sequence cache, the output options and the instrumentation hooks together, so that they do not need to be passed to every call.
+ * <p>
+ * A UorfCalculator is created with a Builder, and cannot be changed afterwards. It can be shared by any number of threads, as long as its reference genome allows reads from several threads at once, like a MappedFastaReference. The UTR sequence cache is shared by all the threads, and each thread has its own scratch space, which is reused from one call to the next.
+ * <p>
+ * For instance:<br>
+ * UorfCalculator calculator = UorfCalculator.builder().reference(ReferenceProvider.open(genome)).cacheBytes(64L * 1024 * 1024).listener(metrics).build();<br>
+ * Uorf.UorfResult result = calculator.calculateUorfEffect(utr, "19", 633529, "G", "GGCGCCGCCGCCGCCGCCGCC");
+ */
+public class UorfCalculator
+{
+	/**
+	 * Something that is told about every uORF effect that is calculated, for instance to count them or time them.
+	 */
+	public interface Listener
+	{
+		/**
+		 * Called after each successful call of calculateUorfEffect, on the thread that made it.
+		 *
+		 * @param fivePrimeUtr the 5-prime UTR
+		 * @param chr the chromosome of the variant
+		 * @param pos the position of the variant
+		 * @param ref the reference allele
+		 * @param alt the alternate allele
+		 * @param result the result
+		 * @param nanos the time taken, in nanoseconds
+		 */
+		public void calculated(Uorf.FivePrimeUtr fivePrimeUtr, String chr, int pos, String ref, String alt, Uorf.UorfResult result, long nanos);
+	}
+
+	/**
+	 * Collects the settings of a UorfCalculator.
+	 */
+	public static class Builder
+	{
+		private ReferenceProvider reference;
+		private UtrSequenceCache cache;
+		private long cacheBytes = UtrSequenceCache.DEFAULT_MAX_BYTES;
+		private boolean visualisations = true;
+		private boolean summaryOnly = false;
+		private List<Listener> listeners = new ArrayList<Listener>();
+
+		private Builder() {
+		}
+
+		/**
+		 * Set the reference genome.
+		 *
+		 * @param reference a ReferenceProvider, or null if all the 5-prime UTRs come from a UtrPack
+		 *
+		 * @return this Builder
+		 */
+		public Builder reference(ReferenceProvider reference) {
+			this.reference = reference;
+			return this;
+		}
+
+		/**
+		 * Use an existing UTR sequence cache, which may be shared with other calculators that use the same reference genome.
+		 *
+		 * @param cache a UtrSequenceCache, or null for no cache, so that the reference genome is read for every variant
+		 *
+		 * @return this Builder
+		 */
+		public Builder cache(UtrSequenceCache cache) {
+			this.cache = cache;
+			this.cacheBytes = 0;
+			return this;
+		}
+
+		/**
+		 * Create a new UTR sequence cache for the calculator, instead of using an existing one. The default is a new cache of UtrSequenceCache.DEFAULT_MAX_BYTES.
+		 *
+		 * @param cacheBytes the size limit of the cache, in bytes, or 0 for no cache
+		 *
+		 * @return this Builder
+		 */
+		public Builder cacheBytes(long cacheBytes) {
+			this.cache = null;
+			this.cacheBytes = cacheBytes;
+			return this;
+		}
+
+		/**
+		 * Set whether results can give visualisations. If not, then UorfResult.getVisualisations() returns null, and results do not hold on to the spliced sequences. The default is true.
+		 *
+		 * @param visualisations a boolean
+		 *
+		 * @return this Builder
+		 */
+		public Builder visualisations(boolean visualisations) {
+			this.visualisations = visualisations;
+			return this;
+		}
+
+		/**
+		 * Set whether results only give the effect, whether it is a loss, and the most relevant uORF. If so, then UorfResult.getRefUorfs(), getAltUorfs() and getVisualisations() all return null, and the calculation for a variant in the cache creates no objects other than the result, so it puts almost no load on the garbage collector. The default is false.
+		 *
+		 * @param summaryOnly a boolean
+		 *
+		 * @return this Builder
+		 */
+		public Builder summaryOnly(boolean summaryOnly) {
+			this.summaryOnly = summaryOnly;
+			return this;
+		}
+
+		/**
+		 * Add a Listener, which is told about every uORF effect that is calculated. Listeners are called in the order they were added.
+		 *
+		 * @param listener a Listener, such as a UorfMetrics
+		 *
+		 * @return this Builder
+		 */
+		public Builder listener(Listener listener) {
+			listeners.add(listener);
+			return this;
+		}
+
+		/**
+		 * Returns a new UorfCalculator with these settings.
+		 *
+		 * @return a UorfCalculator
+		 */
+		public UorfCalculator build() {
+			return new UorfCalculator(reference, (cacheBytes > 0 ? new UtrSequenceCache(cacheBytes) : cache), visualisations && !summaryOnly, summaryOnly, listeners.toArray(new Listener[listeners.size()]));
+		}
+	}
+
+	/**
+	 * Space reused by each thread from one call to the next, and the details of the last calculation for the flight recorder event, so that the event does not need to be passed around.
+	 */
+	private static class Scratch
+	{
+		private byte[] bases = new byte[1024];
+		private UorfScanner.AltSearch search = new UorfScanner.AltSearch();
+		private boolean cacheHit;
+		private long cacheMisses;
+		private long referenceBytes;
+		private int utrLength, refUorfs, altUorfs;
+
+		/**
+		 * Returns the alternate sequence buffer, at least a given size.
+		 *
+		 * @param length the number of bytes needed
+		 *
+		 * @return a byte array
+		 */
+		private byte[] bases(int length) {
+			if (bases.length < length) {
+				bases = new byte[Math.max(length, bases.length * 2)];
+			}
+			return bases;
+		}
+	}
+
+	// Shared by all calculators, so that a thread using several calculators only has one
+	private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+	private static final Listener[] NO_LISTENERS = new Listener[0];
+
+	/**
+	 * The type of the flight recorder event for each calculation, which says whether any recording is running with the event enabled, so that no event needs to be created otherwise.
+	 */
+	private static final EventType EFFECT_EVENT = EventType.getEventType(UorfEvents.Effect.class);
+
+	private final ReferenceProvider reference;
+	private final UtrSequenceCache cache;
+	private final boolean visualisations;
+	private final boolean summaryOnly;
+	private final Listener[] listeners;
+
+	/**
+	 * Returns a new Builder, with no reference genome, a new UTR sequence cache of the default size, full results with visualisations, and no listeners.
+	 *
+	 * @return a Builder
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	private UorfCalculator(ReferenceProvider reference, UtrSequenceCache cache, boolean visualisations, boolean summaryOnly, Listener[] listeners) {
+		this.reference = reference;
+		this.cache = cache;
+		this.visualisations = visualisations;
+		this.summaryOnly = summaryOnly;
+		this.listeners = listeners;
+	}
+
+	/**
+	 * Creates a calculator with no listeners, for the static methods in Uorf.
+	 */
+	UorfCalculator(ReferenceProvider reference, UtrSequenceCache cache) {
+		this(reference, cache, true, false, NO_LISTENERS);
+	}
+
+	/**
+	 * Returns the number of UTR sequence cache misses in the calculations made so far by the calling thread, with any calculator. Unlike UtrSequenceCache.getMisses(), this does not count the misses of other threads sharing the cache.
+	 *
+	 * @return a long
+	 */
+	public static long getThreadCacheMisses() {
+		return SCRATCH.get().cacheMisses;
+	}
+
+	/**
+	 * Returns the reference genome.
+	 *
+	 * @return a ReferenceProvider, or null
+	 */
+	public ReferenceProvider getReference() {
+		return reference;
+	}
+
+	/**
+	 * Returns the UTR sequence cache.
+	 *
+	 * @return a UtrSequenceCache, or null if there is no cache
+	 */
+	public UtrSequenceCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Returns whether results can give visualisations.
+	 *
+	 * @return a boolean
+	 */
+	public boolean getVisualisations() {
+		return visualisations;
+	}
+
+	/**
+	 * Returns whether results only give the effect, whether it is a loss, and the most relevant uORF.
+	 *
+	 * @return a boolean
+	 */
+	public boolean getSummaryOnly() {
+		return summaryOnly;
+	}
+
+	/**
+	 * Calculate the uORFS in the 5-prime UTR in both reference and variant cases, then calculate any differences between the two.
+	 * The spliced reference sequence of the 5-prime UTR and the uORFs in it are taken from the cache if possible, so that the reference genome only needs to be read and searched once for each transcript. Only the alternate sequence is searched for each variant.
+	 *
+	 * @param fivePrimeUtr a FivePrimeUtr object describing where the UTR is
+	 * @param chr the chromosome of the variant
+	 * @param pos the position of the variant
+	 * @param ref the reference allele in the area where the variant is
+	 * @param alt the alternate allele in the area where the variant is
+	 *
+	 * @return a UorfResult object containing the results
+	 */
+	public Uorf.UorfResult calculateUorfEffect(Uorf.FivePrimeUtr fivePrimeUtr, String chr, int pos, String ref, String alt) {
+		UorfEvents.Effect event = null;
+		if (EFFECT_EVENT.isEnabled()) {
+			event = new UorfEvents.Effect();
+			event.begin();
+		}
+		long start = ((listeners.length > 0) || UorfTimings.ENABLED ? System.nanoTime() : 0);
+		Scratch scratch = SCRATCH.get();
+		Uorf.UorfResult retval;
+		try {
+			retval = calculate(fivePrimeUtr, chr, pos, ref, alt, scratch);
+		} finally {
+			if (UorfTimings.ENABLED) {
+				UorfTimings.record(UorfTimings.Stage.CALCULATE, start);
+			}
+		}
+		long nanos = (listeners.length > 0 ? System.nanoTime() - start : 0);
+		if (event != null) {
+			event.end();
+		}
+		if ((event != null) && event.shouldCommit()) {
+			event.chr = chr;
+			event.position = pos;
+			event.ref = ref;
+			event.alt = alt;
+			event.transcript = (fivePrimeUtr == null ? null : fivePrimeUtr.getName());
+			event.utrLength = scratch.utrLength;
+			event.refUorfs = scratch.refUorfs;
+			event.altUorfs = scratch.altUorfs;
+			event.effect = retval.getEffect();
+			event.cacheHit = scratch.cacheHit;
+			event.referenceBytes = scratch.referenceBytes;
+			event.commit();
+		}
+		for (Listener listener : listeners) {
+			listener.calculated(fivePrimeUtr, chr, pos, ref, alt, retval, nanos);
+		}
+		return retval;
+	}
+
+	/**
+	 * Calculate the uORF effect, using a thread's scratch space, and filling in the details of the calculation there for the flight recorder event.
+	 */
+	private Uorf.UorfResult calculate(Uorf.FivePrimeUtr fivePrimeUtr, String chr, int pos, String ref, String alt, Scratch scratch) {
+		scratch.cacheHit = false;
+		scratch.referenceBytes = 0;
+		scratch.utrLength = 0;
+		scratch.refUorfs = 0;
+		scratch.altUorfs = 0;
+		if (fivePrimeUtr == null) {
+			// Cannot create a result without a FivePrimeUtr
+			return new Uorf.UorfResult("", false, null, null, null, null);
+		}
+		List<Uorf.FivePrimeUtrExon> exons = fivePrimeUtr.getExons();
+		int overlaps = -1;
+		// Find the exon that contains the variant
+		for (int i = 0; i < exons.size(); i++) {
+			Uorf.FivePrimeUtrExon exon = exons.get(i);
+			if (exon.getChr().equals(chr) && (exon.getStart() <= pos) && (exon.getEnd() >= pos + ref.length() - 1)) {
+				overlaps = i;
+			}
+		}
+		if (overlaps == -1) {
+			// Variant is not in the 5-prime UTR
+			return new Uorf.UorfResult("", false, null, null, null, null);
+		}
+		UtrSequenceCache.SplicedUtr spliced = (cache == null ? null : cache.lookup(fivePrimeUtr));
+		scratch.cacheHit = (spliced != null);
+		if ((spliced == null) && (cache != null)) {
+			scratch.cacheMisses++;
+		}
+		if (spliced == null) {
+			spliced = (cache == null ? UtrSequenceCache.splice(reference, fivePrimeUtr) : cache.load(reference, fivePrimeUtr));
+			// A UTR from a UtrPack is read from the pack, not the reference genome
+			scratch.referenceBytes = (fivePrimeUtr instanceof UtrPack.PackedUtr ? 0 : spliced.getBases().length);
+		}
+		byte[] refBases = spliced.getBases();
+		scratch.utrLength = refBases.length;
+		long time = (UorfTimings.ENABLED ? System.nanoTime() : 0);
+		// Apply the variant to the spliced 5-prime UTR. On the reverse strand, the exon is reverse complemented, so the variant is too.
+		int offset;
+		if (fivePrimeUtr.getForwardStrand()) {
+			offset = spliced.getExonOffset(overlaps) + pos - exons.get(overlaps).getStart();
+		} else {
+			offset = spliced.getExonOffset(overlaps) + exons.get(overlaps).getEnd() - (pos + ref.length() - 1);
+		}
+		int alleleLength = alt.length();
+		int altLength = refBases.length - ref.length() + alleleLength;
+		// The alternate sequence is only kept by the result if it is needed for the visualisations. Otherwise the thread's buffer is used, which may be longer than the sequence.
+		byte[] altBases = (visualisations ? new byte[altLength] : scratch.bases(altLength));
+		System.arraycopy(refBases, 0, altBases, 0, offset);
+		if (fivePrimeUtr.getForwardStrand()) {
+			// The same as getBytes(StandardCharsets.ISO_8859_1), without creating an array
+			for (int i = 0; i < alleleLength; i++) {
+				char c = alt.charAt(i);
+				altBases[offset + i] = (byte) (c < 256 ? c : '?');
+			}
+		} else {
+			long reverseStart = (UorfTimings.ENABLED ? System.nanoTime() : 0);
+			Uorf.reverse(alt, altBases, offset);
+			if (UorfTimings.ENABLED) {
+				long reverseNanos = System.nanoTime() - reverseStart;
+				UorfTimings.add(UorfTimings.Stage.REVERSE, reverseNanos);
+				// The reverse complement is not counted as part of the splice
+				time += reverseNanos;
+			}
+		}
+		System.arraycopy(refBases, offset + ref.length(), altBases, offset + alleleLength, refBases.length - offset - ref.length());
+		if (UorfTimings.ENABLED) {
+			time = UorfTimings.record(UorfTimings.Stage.SPLICE, time);
+		}
+		// The ORFs in the reference 5-prime UTR only depend on the transcript, so they are found once and kept with the spliced sequence
+		List<Uorf> refUorfs = spliced.getRefUorfs();
+		Uorf refUorf = spliced.getRefUorf();
+		// Find the ORFs in the alternate 5-prime UTR, only searching again around the variant. The visualisations are only built if they are asked for.
+		UorfScanner.AltSearch search = scratch.search;
+		search.search(spliced.getFrames(), refBases.length, altBases, altLength, offset, ref.length(), false, !summaryOnly);
+		scratch.refUorfs = refUorfs.size();
+		scratch.altUorfs = search.getCount();
+		if (UorfTimings.ENABLED) {
+			time = UorfTimings.record(UorfTimings.Stage.ALT_SCAN, time);
+		}
+		// Find the most "damaging" ORF in the alternate allele
+		List<Uorf> altUorfs = null;
+		Uorf altUorf;
+		if (summaryOnly) {
+			// Only the most "damaging" ORF is needed, so it is picked out without a list or a sort
+			altUorf = search.getBest();
+		} else {
+			altUorfs = new ArrayList<Uorf>();
+			search.addTo(altUorfs);
+			// Sort the ORF list by consequence. The most "damaging" ORF will be first
+			Collections.sort(altUorfs);
+			altUorf = (altUorfs.isEmpty() ? null : altUorfs.get(0));
+		}
+		if (UorfTimings.ENABLED) {
+			UorfTimings.record(UorfTimings.Stage.SORT, time);
+		}
+		// This is the length change of the InDel, so we can allow for changes in distance from the gene
+		int lengthChange = Math.abs(ref.length() - alt.length());
+		// Work out the consequence of the change
+		boolean altStats = true;
+		String effect = "No change";
+		if (refUorf == null) {
+			if (altUorf == null) {
+				return newResult("", false, null, null, null, refBases, altBases, offset, ref.length());
+			} else if (altUorf.getType() == Uorf.UorfType.FRAMESHIFT) {
+				effect = "out-of-frame_oORF";
+			} else if (altUorf.getType() == Uorf.UorfType.EXTENDING) {
+				effect = "CDS_elongated";
+			} else {
+				effect = "uORF_created";
+			}
+		} else if (refUorf.getType() == Uorf.UorfType.FRAMESHIFT) {
+			if (altUorf == null) {
+				effect = "loss_out-of-frame_oORF";
+				altStats = false;
+			} else if (altUorf.getType() == Uorf.UorfType.FRAMESHIFT) {
+				if (altUorf.getStrength() > refUorf.getStrength()) {
+					effect = "stronger_out-of-frame_oORF";
+				} else if (altUorf.getStrength() < refUorf.getStrength()) {
+					effect = "loss_weaker_out-of-frame_oORF";
+					altStats = false;
+				} else if (altUorf.getDistance() < refUorf.getDistance() - lengthChange) {
+					effect = "closer_out-of-frame_oORF";
+				} else if (altUorf.getDistance() > refUorf.getDistance() + lengthChange) {
+					effect = "loss_further_out-of-frame_oORF";
+					altStats = false;
+				}
+			} else {
+				effect = "loss_out-of-frame_oORF";
+				altStats = false;
+			}
+		} else if (refUorf.getType() == Uorf.UorfType.EXTENDING) {
+			if (altUorf == null) {
+				effect = "loss_CDS_elongated";
+				altStats = false;
+			} else if (altUorf.getType() == Uorf.UorfType.FRAMESHIFT) {
+				effect = "out-of-frame_oORF";
+			} else if (altUorf.getType() == Uorf.UorfType.EXTENDING) {
+				if (altUorf.getStrength() > refUorf.getStrength()) {
+					effect = "stronger_CDS_elongated";
+				} else if (altUorf.getStrength() < refUorf.getStrength()) {
+					effect = "loss_weaker_CDS_elongated";
+					altStats = false;
+				} else if (altUorf.getDistance() < refUorf.getDistance() - lengthChange) {
+					effect = "closer_CDS_elongated";
+				} else if (altUorf.getDistance() > refUorf.getDistance() + lengthChange) {
+					effect = "loss_further_CDS_elongated";
+					altStats = false;
+				}
+			} else {
+				effect = "loss_CDS_elongated";
+				altStats = false;
+			}
+		} else {
+			if (altUorf == null) {
+				effect = "loss_uORF";
+				altStats = false;
+			} else if (altUorf.getType() == Uorf.UorfType.FRAMESHIFT) {
+				effect = "out-of-frame_oORF";
+			} else if (altUorf.getType() == Uorf.UorfType.EXTENDING) {
+				effect = "CDS_elongated";
+			} else {
+				if (altUorf.getStrength() > refUorf.getStrength()) {
+					effect = "stronger_uORF_created";
+				} else if (altUorf.getStrength() < refUorf.getStrength()) {
+					effect = "loss_weaker_uORF";
+					altStats = false;
+				} else if (altUorf.getDistance() < refUorf.getDistance() - lengthChange) {
+					effect = "closer_uORF_created";
+				} else if (altUorf.getDistance() > refUorf.getDistance() + lengthChange) {
+					effect = "loss_further_uORF";
+					altStats = false;
+				}
+			}
+		}
+		return newResult(effect, !altStats, altStats ? altUorf : refUorf, refUorfs, altUorfs, refBases, altBases, offset, ref.length());
+	}
+
+	/**
+	 * Returns a result, which only keeps the spliced sequences for the visualisations if this calculator gives them, and only keeps the uORF lists if it gives more than a summary.
+	 */
+	private Uorf.UorfResult newResult(String effect, boolean loss, Uorf uorf, List<Uorf> refUorfs, List<Uorf> altUorfs, byte[] refBases, byte[] altBases, int variantStart, int refAlleleLength) {
+		if (summaryOnly) {
+			return new Uorf.UorfResult(effect, loss, uorf, null, null, null);
+		} else if (visualisations) {
+			return new Uorf.UorfResult(effect, loss, uorf, refUorfs, altUorfs, refBases, altBases, variantStart, refAlleleLength);
+		}
+		return new Uorf.UorfResult(effect, loss, uorf, refUorfs, altUorfs, null);
+	}
+}
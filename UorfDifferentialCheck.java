@@ -0,0 +1,277 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Checks that the uORF search used by calculateUorfEffect gives exactly the same results as searching the whole sequence with Uorf.findUorfs.
+ * Random 5-prime UTR sequences and random variants are generated, and the uORF lists and visualisations from both searches are compared, for the reference and the alternate sequences. The number of alternate uORFs and the most "damaging" one found by the summary-only search are checked too.
+ * <p>
+ * UorfCalculator.calculateUorfEffect is then checked end to end, on random 5-prime UTRs of one or more exons on either strand, so that the splicing and the position of the variant in the spliced sequence are checked as well as the search.
+ * <p>
+ * Usage: java UorfDifferentialCheck [iterations] [seed]
+ */
+public class UorfDifferentialCheck
+{
+	public static void main(String[] args) {
+		int iterations = (args.length > 0 ? Integer.parseInt(args[0]) : 100000);
+		long seed = (args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime());
+		System.out.println("Checking " + iterations + " variants with seed " + seed);
+		Random random = new Random(seed);
+		UorfScanner.AltSearch search = new UorfScanner.AltSearch();
+		int failures = 0;
+		for (int i = 0; (i < iterations) && (failures < 10); i++) {
+			String refBases = randomBases(random, 3 + random.nextInt(random.nextInt(10) == 0 ? 3000 : 300));
+			int variantStart = random.nextInt(refBases.length());
+			int refAlleleLength = 1 + (random.nextInt(3) == 0 ? random.nextInt(Math.min(10, refBases.length() - variantStart)) : 0);
+			String altAllele;
+			switch (random.nextInt(4)) {
+				case 0:
+					// Large insertion
+					altAllele = randomBases(random, 1 + random.nextInt(100));
+					break;
+				case 1:
+					// Deletion, keeping the first base
+					altAllele = refBases.substring(variantStart, variantStart + 1);
+					break;
+				default:
+					// SNV, MNV, or small insertion
+					altAllele = randomBases(random, 1 + (random.nextBoolean() ? 0 : random.nextInt(10)));
+			}
+			String altBases = refBases.substring(0, variantStart) + altAllele + refBases.substring(variantStart + refAlleleLength);
+			if (altBases.length() < 3) {
+				continue;
+			}
+			String description = "reference " + refBases + " position " + variantStart + " length " + refAlleleLength + " alternate " + altAllele;
+			// Search the reference in the same way as calculateUorfEffect
+			UorfScanner.Frame[] frames = UorfScanner.scanFrames(refBases.getBytes(StandardCharsets.ISO_8859_1), true);
+			List<Uorf> refUorfs = new ArrayList<Uorf>();
+			List<Uorf> expectedRefUorfs = new ArrayList<Uorf>();
+			for (int k = 0; k < 3; k++) {
+				frames[k].addTo(refUorfs);
+				String expected = Uorf.findUorfs(refBases, (refBases.length() + k) % 3, expectedRefUorfs);
+				if (!expected.equals(frames[k].getVisualisation())) {
+					failures++;
+					System.out.println("Reference visualisation differs in frame " + k + " for " + description + "\n  expected " + expected + "\n  found    " + frames[k].getVisualisation());
+				}
+			}
+			if (!expectedRefUorfs.toString().equals(refUorfs.toString())) {
+				failures++;
+				System.out.println("Reference uORFs differ for " + description + "\n  expected " + expectedRefUorfs + "\n  found    " + refUorfs);
+			}
+			// Search the alternate
+			List<Uorf> altUorfs = new ArrayList<Uorf>();
+			String[] visualisations = UorfScanner.findAltUorfs(frames, refBases.length(), altBases.getBytes(StandardCharsets.ISO_8859_1), variantStart, refAlleleLength, altUorfs, true);
+			List<Uorf> expectedAltUorfs = new ArrayList<Uorf>();
+			for (int k = 0; k < 3; k++) {
+				String expected = Uorf.findUorfs(altBases, (altBases.length() + k) % 3, expectedAltUorfs);
+				if (!expected.equals(visualisations[k])) {
+					failures++;
+					System.out.println("Alternate visualisation differs in frame " + k + " for " + description + "\n  expected " + expected + "\n  found    " + visualisations[k]);
+				}
+			}
+			if (!expectedAltUorfs.toString().equals(altUorfs.toString())) {
+				failures++;
+				System.out.println("Alternate uORFs differ for " + description + "\n  expected " + expectedAltUorfs + "\n  found    " + altUorfs);
+			}
+			// Search again without the visualisations, as calculateUorfEffect does
+			List<Uorf> unvisualisedAltUorfs = new ArrayList<Uorf>();
+			UorfScanner.findAltUorfs(UorfScanner.scanFrames(refBases.getBytes(StandardCharsets.ISO_8859_1), false), refBases.length(), altBases.getBytes(StandardCharsets.ISO_8859_1), variantStart, refAlleleLength, unvisualisedAltUorfs, false);
+			if (!expectedAltUorfs.toString().equals(unvisualisedAltUorfs.toString())) {
+				failures++;
+				System.out.println("Alternate uORFs differ without visualisations for " + description + "\n  expected " + expectedAltUorfs + "\n  found    " + unvisualisedAltUorfs);
+			}
+			// Search again in a longer reused buffer, only picking out the most "damaging" uORF, as a summary-only UorfCalculator does
+			byte[] buffer = new byte[altBases.length() + random.nextInt(100)];
+			random.nextBytes(buffer);
+			System.arraycopy(altBases.getBytes(StandardCharsets.ISO_8859_1), 0, buffer, 0, altBases.length());
+			search.search(frames, refBases.length(), buffer, altBases.length(), variantStart, refAlleleLength, false, false);
+			Collections.sort(expectedAltUorfs);
+			String expectedBest = (expectedAltUorfs.isEmpty() ? "null" : expectedAltUorfs.get(0).toString());
+			if ((search.getCount() != expectedAltUorfs.size()) || !expectedBest.equals(String.valueOf(search.getBest()))) {
+				failures++;
+				System.out.println("Summary differs for " + description + "\n  expected " + expectedAltUorfs.size() + " uORFs, best " + expectedBest + "\n  found    " + search.getCount() + " uORFs, best " + search.getBest());
+			}
+			failures += checkCalculator(random);
+		}
+		if (failures > 0) {
+			System.out.println("FAILED");
+			System.exit(1);
+		}
+		System.out.println("All results identical");
+	}
+
+	/**
+	 * Check UorfCalculator.calculateUorfEffect against splicing the 5-prime UTR and searching it with Uorf.findUorfs, as Uorf.calculateUorfEffect originally did.
+	 * A random 5-prime UTR of one to four exons is put in a random chromosome, and a few random variants in it are checked with a calculator that reads the reference genome every time, one with a cache, and a summary-only one.
+	 *
+	 * @param random the random number generator
+	 *
+	 * @return the number of failures
+	 */
+	private static int checkCalculator(Random random) {
+		boolean forward = random.nextBoolean();
+		int exonCount = 1 + random.nextInt(4);
+		StringBuilder chromosome = new StringBuilder(randomBases(random, 1 + random.nextInt(50)));
+		List<Uorf.FivePrimeUtrExon> exons = new ArrayList<Uorf.FivePrimeUtrExon>();
+		for (int i = 0; i < exonCount; i++) {
+			if (i > 0) {
+				// Intron
+				chromosome.append(randomBases(random, 1 + random.nextInt(50)));
+			}
+			int start = chromosome.length() + 1;
+			chromosome.append(randomBases(random, 1 + random.nextInt(random.nextInt(10) == 0 ? 1000 : 100)));
+			// Exons are listed in the order they are transcribed, so backwards on the reverse strand
+			exons.add(forward ? exons.size() : 0, new Uorf.FivePrimeUtrExon("chr", start, chromosome.length()));
+		}
+		chromosome.append(randomBases(random, 1 + random.nextInt(50)));
+		// Soft-mask some of the reference genome
+		String bases = chromosome.toString();
+		if (random.nextBoolean()) {
+			int from = random.nextInt(bases.length());
+			int to = from + random.nextInt(bases.length() - from);
+			bases = bases.substring(0, from) + bases.substring(from, to).toLowerCase(Locale.ROOT) + bases.substring(to);
+		}
+		InMemoryReference reference = new InMemoryReference();
+		reference.put("chr", bases);
+		Uorf.FivePrimeUtr utr = new Uorf.FivePrimeUtr(forward, exons);
+		UorfCalculator uncached = UorfCalculator.builder().reference(reference).cacheBytes(0).build();
+		UorfCalculator cached = UorfCalculator.builder().reference(reference).cacheBytes(1 << 20).build();
+		UorfCalculator summary = UorfCalculator.builder().reference(reference).cacheBytes(1 << 20).summaryOnly(true).build();
+		String upperBases = bases.toUpperCase(Locale.ROOT);
+		int failures = 0;
+		for (int v = 0; v < 3; v++) {
+			Uorf.FivePrimeUtrExon overlaps = exons.get(random.nextInt(exons.size()));
+			int pos = overlaps.getStart() + random.nextInt(overlaps.getEnd() - overlaps.getStart() + 1);
+			int refAlleleLength = 1 + (random.nextInt(3) == 0 ? random.nextInt(Math.min(10, overlaps.getEnd() - pos + 1)) : 0);
+			if (random.nextInt(10) == 0) {
+				// Variant in the flanking sequence or an intron, or running off the end of an exon
+				pos = 1 + random.nextInt(bases.length());
+				refAlleleLength = 1 + random.nextInt(Math.min(10, bases.length() - pos + 1));
+				overlaps = null;
+				for (Uorf.FivePrimeUtrExon exon : exons) {
+					if ((exon.getStart() <= pos) && (exon.getEnd() >= pos + refAlleleLength - 1)) {
+						overlaps = exon;
+					}
+				}
+			}
+			String refAllele = upperBases.substring(pos - 1, pos - 1 + refAlleleLength);
+			String altAllele;
+			switch (random.nextInt(4)) {
+				case 0:
+					// Large insertion
+					altAllele = randomBases(random, 1 + random.nextInt(100));
+					break;
+				case 1:
+					// Deletion, keeping the first base
+					altAllele = refAllele.substring(0, 1);
+					break;
+				default:
+					// SNV, MNV, or small insertion
+					altAllele = randomBases(random, 1 + (random.nextBoolean() ? 0 : random.nextInt(10)));
+			}
+			String description = (forward ? "forward" : "reverse") + " strand exons " + describe(exons) + " reference " + bases + " position " + pos + " reference allele " + refAllele + " alternate " + altAllele;
+			Uorf.UorfResult result = uncached.calculateUorfEffect(utr, "chr", pos, refAllele, altAllele);
+			// Splice the 5-prime UTR, before and after the variant
+			String expectedEffect = "";
+			boolean expectedLoss = false;
+			String expectedUorf = "null";
+			String expectedRefUorfs = "null";
+			String expectedAltUorfs = "null";
+			String expectedVisualisations = "null";
+			if (overlaps != null) {
+				StringBuilder refBases = new StringBuilder();
+				StringBuilder altBases = new StringBuilder();
+				for (Uorf.FivePrimeUtrExon exon : exons) {
+					String exonBases = upperBases.substring(exon.getStart() - 1, exon.getEnd());
+					String altExonBases = exonBases;
+					if (exon == overlaps) {
+						altExonBases = exonBases.substring(0, pos - exon.getStart()) + altAllele + exonBases.substring(pos - exon.getStart() + refAlleleLength);
+					}
+					refBases.append(forward ? exonBases : Uorf.reverse(exonBases));
+					altBases.append(forward ? altExonBases : Uorf.reverse(altExonBases));
+				}
+				if ((refBases.length() < 3) || (altBases.length() < 3)) {
+					continue;
+				}
+				List<Uorf> refUorfs = new ArrayList<Uorf>();
+				List<Uorf> altUorfs = new ArrayList<Uorf>();
+				List<String> visualisations = new ArrayList<String>();
+				for (int k = 0; k < 3; k++) {
+					visualisations.add(Uorf.findUorfs(refBases.toString(), (refBases.length() + k) % 3, refUorfs));
+					visualisations.add(Uorf.findUorfs(altBases.toString(), (altBases.length() + k) % 3, altUorfs));
+				}
+				Collections.sort(refUorfs);
+				Collections.sort(altUorfs);
+				expectedVisualisations = visualisations.toString();
+				if (!refUorfs.isEmpty() || !altUorfs.isEmpty()) {
+					// There must be an effect, but its name is only checked by the calculators agreeing. Its uORF is the most "damaging" one that is lost or gained.
+					expectedEffect = (result.getEffect().isEmpty() ? "some effect" : result.getEffect());
+					expectedLoss = result.isLoss();
+					List<Uorf> uorfs = (expectedLoss ? refUorfs : altUorfs);
+					expectedUorf = (uorfs.isEmpty() ? "null" : uorfs.get(0).toString());
+					expectedRefUorfs = refUorfs.toString();
+					expectedAltUorfs = altUorfs.toString();
+				}
+			}
+			Uorf.UorfResult[] results = new Uorf.UorfResult[] {result, cached.calculateUorfEffect(utr, "chr", pos, refAllele, altAllele), summary.calculateUorfEffect(utr, "chr", pos, refAllele, altAllele)};
+			String[] names = new String[] {"uncached", "cached", "summary-only"};
+			for (int i = 0; i < results.length; i++) {
+				String expected = expectedEffect + " " + expectedLoss + " " + expectedUorf + (i == 2 ? "" : " " + expectedRefUorfs + " " + expectedAltUorfs + " " + expectedVisualisations);
+				String found = results[i].getEffect() + " " + results[i].isLoss() + " " + results[i].getUorf() + (i == 2 ? "" : " " + results[i].getRefUorfs() + " " + results[i].getAltUorfs() + " " + (results[i].getVisualisations() == null ? "null" : Arrays.asList(results[i].getVisualisations())));
+				if (!expected.equals(found)) {
+					failures++;
+					System.out.println("Effect from the " + names[i] + " calculator differs for " + description + "\n  expected " + expected + "\n  found    " + found);
+				}
+			}
+		}
+		return failures;
+	}
+
+	/**
+	 * Describe the positions of some exons, for a failure message.
+	 *
+	 * @param exons the exons
+	 *
+	 * @return a String
+	 */
+	private static String describe(List<Uorf.FivePrimeUtrExon> exons) {
+		StringBuilder retval = new StringBuilder();
+		for (Uorf.FivePrimeUtrExon exon : exons) {
+			retval.append(retval.length() == 0 ? "" : ",").append(exon.getStart()).append('-').append(exon.getEnd());
+		}
+		return retval.toString();
+	}
+
+	/**
+	 * Generate a random sequence. The base composition varies between sequences, and some sequences have extra start and stop codons, so that many uORFs are found, or unknown bases.
+	 *
+	 * @param random the random number generator
+	 * @param length the length of the sequence
+	 *
+	 * @return a String
+	 */
+	private static String randomBases(Random random, int length) {
+		double gc = 0.2 + random.nextDouble() * 0.6;
+		double codons = (random.nextBoolean() ? 0.0 : random.nextDouble() * 0.2);
+		double unknown = (random.nextInt(10) == 0 ? 0.02 : 0.0);
+		StringBuilder retval = new StringBuilder(length + 2);
+		while (retval.length() < length) {
+			if (random.nextDouble() < unknown) {
+				retval.append('N');
+			} else if (random.nextDouble() < codons) {
+				retval.append(CODONS[random.nextInt(CODONS.length)]);
+			} else {
+				double r = random.nextDouble();
+				retval.append(r < gc / 2 ? 'G' : (r < gc ? 'C' : (r < (1 + gc) / 2 ? 'A' : 'T')));
+			}
+		}
+		retval.setLength(length);
+		return retval.toString();
+	}
+
+	private static final String[] CODONS = new String[] {"ATG", "TAA", "TAG", "TGA", "AATGG", "GATGG"};
+}
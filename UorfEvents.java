@@ -0,0 +1,93 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Java Flight Recorder events for uORF annotation, so that slow variants and transcripts can be found in a production run. They are recorded when Java is run with a flight recording, for instance with "-XX:StartFlightRecording:filename=uorf.jfr", and cost almost nothing otherwise.
+ * Each event has a threshold, so that only the slow ones are recorded. The thresholds can be changed in a JFR settings file.
+ */
+class UorfEvents
+{
+	private UorfEvents() {
+	}
+
+	/**
+	 * A call to calculateUorfEffect that took longer than the threshold.
+	 */
+	@Name("uorf.UorfEffect")
+	@Label("uORF Effect")
+	@Category("uORF")
+	@Description("Calculation of the effect of a variant on the uORFs in a 5-prime UTR")
+	@Threshold("1 ms")
+	@StackTrace(false)
+	static class Effect extends Event
+	{
+		@Label("Chromosome")
+		String chr;
+
+		@Label("Position")
+		int position;
+
+		@Label("Reference Allele")
+		String ref;
+
+		@Label("Alternate Allele")
+		String alt;
+
+		@Label("Transcript")
+		String transcript;
+
+		@Label("UTR Length")
+		@Description("Number of bases in the spliced 5-prime UTR")
+		int utrLength;
+
+		@Label("Reference uORFs")
+		int refUorfs;
+
+		@Label("Alternate uORFs")
+		int altUorfs;
+
+		@Label("Effect")
+		String effect;
+
+		@Label("Cache Hit")
+		@Description("Whether the spliced 5-prime UTR was found in the UTR sequence cache")
+		boolean cacheHit;
+
+		@Label("Reference Bytes Read")
+		@Description("Number of bases read from the reference genome for this variant")
+		@DataAmount
+		long referenceBytes;
+	}
+
+	/**
+	 * A chunk of VCF records annotated by one UorfBatch worker thread, that took longer than the threshold.
+	 */
+	@Name("uorf.BatchChunk")
+	@Label("uORF Batch Chunk")
+	@Category("uORF")
+	@Description("Annotation of a chunk of VCF records by a UorfBatch worker thread")
+	@Threshold("100 ms")
+	@StackTrace(false)
+	static class BatchChunk extends Event
+	{
+		@Label("Chunk Number")
+		long chunk;
+
+		@Label("Records")
+		int records;
+
+		@Label("Annotated Records")
+		@Description("Number of records in the chunk with a uORF effect")
+		int annotated;
+
+		@Label("Cache Misses")
+		@Description("Number of UTR sequence cache misses in annotating the chunk")
+		long cacheMisses;
+	}
+}
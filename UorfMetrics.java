@@ -0,0 +1,257 @@
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the work done by a long-running annotation service, which can be written out in the Prometheus text format.
+ * All the counters are LongAdders, so they can be updated by many threads at once without locking.
+ * The calculations can be counted by adding this as a listener of a UorfCalculator, or by calling recordCalculation.
+ */
+public class UorfMetrics implements UorfCalculator.Listener
+{
+	/**
+	 * The upper bounds of the buckets of the calculateUorfEffect latency histogram, in seconds.
+	 */
+	public static final double[] LATENCY_BUCKETS = {0.00001, 0.000025, 0.00005, 0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.1};
+
+	private static final long[] LATENCY_BUCKET_NANOS = new long[LATENCY_BUCKETS.length];
+
+	static {
+		for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+			LATENCY_BUCKET_NANOS[i] = Math.round(LATENCY_BUCKETS[i] * 1e9);
+		}
+	}
+
+	private ConcurrentHashMap<String, LongAdder> requests = new ConcurrentHashMap<String, LongAdder>();
+	private LongAdder inFlight = new LongAdder();
+	private LongAdder queries = new LongAdder();
+	private LongAdder queryErrors = new LongAdder();
+	private ConcurrentHashMap<String, LongAdder> effects = new ConcurrentHashMap<String, LongAdder>();
+	// One more bucket than LATENCY_BUCKETS, for the calculations slower than all of them
+	private LongAdder[] latencyCounts = new LongAdder[LATENCY_BUCKETS.length + 1];
+	private LongAdder latencyNanos = new LongAdder();
+	private LongAdder referenceBytes = new LongAdder();
+
+	/**
+	 * Creates a new set of counters, all zero.
+	 */
+	public UorfMetrics() {
+		for (int i = 0; i < latencyCounts.length; i++) {
+			latencyCounts[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Count the start of a request, which is in flight until requestFinished is called.
+	 *
+	 * @param path the path of the request, such as "/annotate"
+	 */
+	public void requestStarted(String path) {
+		requests.computeIfAbsent(path, k -> new LongAdder()).increment();
+		inFlight.increment();
+	}
+
+	/**
+	 * Count the end of a request.
+	 */
+	public void requestFinished() {
+		inFlight.decrement();
+	}
+
+	/**
+	 * Count a query, which may hold several calculations, one for each transcript.
+	 *
+	 * @param error true if the query could not be answered
+	 */
+	public void recordQuery(boolean error) {
+		queries.increment();
+		if (error) {
+			queryErrors.increment();
+		}
+	}
+
+	/**
+	 * Count one call of calculateUorfEffect.
+	 *
+	 * @param nanos the time taken, in nanoseconds
+	 * @param effect the effect from the UorfResult
+	 */
+	public void recordCalculation(long nanos, String effect) {
+		int bucket = 0;
+		while ((bucket < LATENCY_BUCKET_NANOS.length) && (nanos > LATENCY_BUCKET_NANOS[bucket])) {
+			bucket++;
+		}
+		latencyCounts[bucket].increment();
+		latencyNanos.add(nanos);
+		effects.computeIfAbsent(effect, k -> new LongAdder()).increment();
+	}
+
+	/**
+	 * Count one call of calculateUorfEffect on a UorfCalculator.
+	 */
+	public void calculated(Uorf.FivePrimeUtr fivePrimeUtr, String chr, int pos, String ref, String alt, Uorf.UorfResult result, long nanos) {
+		recordCalculation(nanos, result.getEffect());
+	}
+
+	/**
+	 * Returns the number of requests that have started but not finished.
+	 *
+	 * @return a long
+	 */
+	public long getInFlight() {
+		return inFlight.sum();
+	}
+
+	/**
+	 * Returns the number of queries received so far.
+	 *
+	 * @return a long
+	 */
+	public long getQueries() {
+		return queries.sum();
+	}
+
+	/**
+	 * Returns the number of calls of calculateUorfEffect so far.
+	 *
+	 * @return a long
+	 */
+	public long getCalculations() {
+		long retval = 0;
+		for (LongAdder count : latencyCounts) {
+			retval += count.sum();
+		}
+		return retval;
+	}
+
+	/**
+	 * Returns the number of calls of calculateUorfEffect in each bucket of the latency histogram. The buckets are not cumulative, and there is one more bucket than LATENCY_BUCKETS, for the calls slower than all of them.
+	 *
+	 * @return an array of longs
+	 */
+	public long[] getLatencyCounts() {
+		long[] retval = new long[latencyCounts.length];
+		for (int i = 0; i < retval.length; i++) {
+			retval[i] = latencyCounts[i].sum();
+		}
+		return retval;
+	}
+
+	/**
+	 * Returns the total time taken by calls of calculateUorfEffect so far.
+	 *
+	 * @return a number of nanoseconds
+	 */
+	public long getLatencyNanos() {
+		return latencyNanos.sum();
+	}
+
+	/**
+	 * Returns the number of bases read from the reference genome so far, through a ReferenceProvider returned by countReads.
+	 *
+	 * @return a long
+	 */
+	public long getReferenceBytes() {
+		return referenceBytes.sum();
+	}
+
+	/**
+	 * Returns a ReferenceProvider that reads from another one, counting the number of bases read.
+	 *
+	 * @param reference the reference genome, or null
+	 *
+	 * @return a ReferenceProvider, or null if the reference genome is null
+	 */
+	public ReferenceProvider countReads(ReferenceProvider reference) {
+		if (reference == null) {
+			return null;
+		}
+		return new ReferenceProvider() {
+			public byte[] getBases(String chr, int start, int end) {
+				byte[] retval = reference.getBases(chr, start, end);
+				referenceBytes.add(retval.length);
+				return retval;
+			}
+
+			public void close() throws IOException {
+				reference.close();
+			}
+		};
+	}
+
+	/**
+	 * Write the counters in the Prometheus text format.
+	 *
+	 * @param out the text being written
+	 * @param cache the UTR sequence cache to report on, or null
+	 */
+	public void writePrometheus(StringBuilder out, UtrSequenceCache cache) {
+		header(out, "uorf_http_requests_total", "counter", "HTTP requests received, by path.");
+		for (Map.Entry<String, LongAdder> entry : new TreeMap<String, LongAdder>(requests).entrySet()) {
+			out.append("uorf_http_requests_total{path=\"");
+			appendLabel(out, entry.getKey());
+			out.append("\"} ").append(entry.getValue().sum()).append('\n');
+		}
+		gauge(out, "uorf_http_requests_in_flight", "HTTP requests being handled.", inFlight.sum());
+		counter(out, "uorf_queries_total", "Variant queries received.", queries.sum());
+		counter(out, "uorf_query_errors_total", "Variant queries that could not be answered.", queryErrors.sum());
+		header(out, "uorf_effects_total", "counter", "Calculated uORF effects, by effect. An empty effect means that the variant has no uORF effect.");
+		for (Map.Entry<String, LongAdder> entry : new TreeMap<String, LongAdder>(effects).entrySet()) {
+			out.append("uorf_effects_total{effect=\"");
+			appendLabel(out, entry.getKey());
+			out.append("\"} ").append(entry.getValue().sum()).append('\n');
+		}
+		header(out, "uorf_calculate_seconds", "histogram", "Time taken by calculateUorfEffect.");
+		long cumulative = 0;
+		for (int i = 0; i < latencyCounts.length; i++) {
+			cumulative += latencyCounts[i].sum();
+			out.append("uorf_calculate_seconds_bucket{le=\"").append(i < LATENCY_BUCKETS.length ? BigDecimal.valueOf(LATENCY_BUCKETS[i]).stripTrailingZeros().toPlainString() : "+Inf").append("\"} ").append(cumulative).append('\n');
+		}
+		out.append("uorf_calculate_seconds_sum ").append(latencyNanos.sum() / 1e9).append('\n');
+		out.append("uorf_calculate_seconds_count ").append(cumulative).append('\n');
+		counter(out, "uorf_reference_read_bytes_total", "Bases read from the reference genome.", referenceBytes.sum());
+		if (cache != null) {
+			long hits = cache.getHits();
+			long misses = cache.getMisses();
+			counter(out, "uorf_utr_cache_hits_total", "UTR sequence cache hits.", hits);
+			counter(out, "uorf_utr_cache_misses_total", "UTR sequence cache misses, each of which reads the reference genome.", misses);
+			counter(out, "uorf_utr_cache_evictions_total", "UTR sequences removed from the cache to make space for others.", cache.getEvictions());
+			header(out, "uorf_utr_cache_hit_ratio", "gauge", "Fraction of UTR sequence cache lookups that were hits.");
+			out.append("uorf_utr_cache_hit_ratio ").append(hits + misses == 0 ? 0.0 : ((double) hits) / (hits + misses)).append('\n');
+			gauge(out, "uorf_utr_cache_entries", "UTR sequences in the cache.", cache.getEntryCount());
+			gauge(out, "uorf_utr_cache_bytes", "Estimated size of the UTR sequence cache.", cache.getBytes());
+			gauge(out, "uorf_utr_cache_max_bytes", "Size limit of the UTR sequence cache.", cache.getMaxBytes());
+		}
+	}
+
+	private static void header(StringBuilder out, String name, String type, String help) {
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void counter(StringBuilder out, String name, String help, long value) {
+		header(out, name, "counter", help);
+		out.append(name).append(' ').append(value).append('\n');
+	}
+
+	private static void gauge(StringBuilder out, String name, String help, long value) {
+		header(out, name, "gauge", help);
+		out.append(name).append(' ').append(value).append('\n');
+	}
+
+	private static void appendLabel(StringBuilder out, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if ((c == '\\') || (c == '"')) {
+				out.append('\\').append(c);
+			} else if (c == '\n') {
+				out.append("\\n");
+			} else {
+				out.append(c);
+			}
+		}
+	}
+}
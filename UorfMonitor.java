@@ -0,0 +1,217 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * A JMX MBean giving live statistics of a batch run or server, such as the throughput, the latency of calculateUorfEffect, the queue depths and the UTR sequence cache, and allowing the cache to be resized or cleared without a restart.
+ * UorfBatch, UorfServer and UorfSocketServer register one of these as "uorf:type=UorfMonitor,name=batch", "uorf:type=UorfMonitor,name=server" or "uorf:type=UorfMonitor,name=socket", which can be viewed with jconsole or any other JMX client.
+ */
+public class UorfMonitor implements UorfMonitorMBean
+{
+	/**
+	 * The calculation rate is worked out over at least this many nanoseconds, from counts sampled at most once a second.
+	 */
+	private static final long RATE_WINDOW_NANOS = 10000000000L;
+	private static final long RATE_SAMPLE_NANOS = 1000000000L;
+
+	private UtrSequenceCache cache;
+	private UorfMetrics metrics;
+	private UorfBatch batch;
+	private UorfSocketServer socketServer;
+	private ArrayDeque<long[]> samples = new ArrayDeque<long[]>();
+
+	/**
+	 * Creates a monitor of a batch run.
+	 *
+	 * @param batch the batch annotator
+	 */
+	public UorfMonitor(UorfBatch batch) {
+		this.cache = batch.getCache();
+		this.metrics = batch.getMetrics();
+		this.batch = batch;
+		start();
+	}
+
+	/**
+	 * Creates a monitor of a server.
+	 *
+	 * @param server the server
+	 */
+	public UorfMonitor(UorfServer server) {
+		this.cache = server.getCache();
+		this.metrics = server.getMetrics();
+		start();
+	}
+
+	/**
+	 * Creates a monitor of a Unix domain socket server.
+	 *
+	 * @param socketServer the server
+	 */
+	public UorfMonitor(UorfSocketServer socketServer) {
+		this.cache = socketServer.getCache();
+		this.metrics = socketServer.getMetrics();
+		this.socketServer = socketServer;
+		start();
+	}
+
+	private void start() {
+		samples.add(new long[] {System.nanoTime(), metrics.getCalculations()});
+	}
+
+	/**
+	 * Register this monitor with the platform MBean server.
+	 *
+	 * @param name the name of the thing being monitored, such as "batch", which must not need quoting in an ObjectName
+	 *
+	 * @return the ObjectName that it was registered as
+	 */
+	public ObjectName register(String name) throws JMException {
+		ObjectName retval = new ObjectName("uorf:type=UorfMonitor,name=" + name);
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, retval);
+		return retval;
+	}
+
+	public long getCalculations() {
+		return metrics.getCalculations();
+	}
+
+	public synchronized double getCalculationsPerSecond() {
+		long time = System.nanoTime();
+		long calculations = metrics.getCalculations();
+		if (time - samples.getLast()[0] >= RATE_SAMPLE_NANOS) {
+			samples.addLast(new long[] {time, calculations});
+		}
+		// Start the window at the newest sample that is at least RATE_WINDOW_NANOS old, so that reading the rate does not change it
+		while (samples.size() > 1) {
+			long[] oldest = samples.removeFirst();
+			if (time - samples.getFirst()[0] < RATE_WINDOW_NANOS) {
+				samples.addFirst(oldest);
+				break;
+			}
+		}
+		long[] start = samples.getFirst();
+		return (time == start[0] ? 0.0 : (calculations - start[1]) * 1e9 / (time - start[0]));
+	}
+
+	public long getQueries() {
+		return metrics.getQueries();
+	}
+
+	public long getRecords() {
+		return (batch == null ? 0 : batch.getRecordCount());
+	}
+
+	public long getInFlightRequests() {
+		return metrics.getInFlight();
+	}
+
+	public int getWorkerQueueDepth() {
+		return (batch == null ? 0 : batch.getWorkerQueueDepth());
+	}
+
+	public int getWriterQueueDepth() {
+		if (socketServer != null) {
+			return socketServer.getPendingResponses();
+		}
+		return (batch == null ? 0 : batch.getWriterQueueDepth());
+	}
+
+	public double getMeanLatencyMicros() {
+		long calculations = metrics.getCalculations();
+		return (calculations == 0 ? 0.0 : metrics.getLatencyNanos() / 1000.0 / calculations);
+	}
+
+	public double getLatencyP50Micros() {
+		return getLatencyPercentile(0.5);
+	}
+
+	public double getLatencyP90Micros() {
+		return getLatencyPercentile(0.9);
+	}
+
+	public double getLatencyP99Micros() {
+		return getLatencyPercentile(0.99);
+	}
+
+	/**
+	 * Returns the upper bound of the latency histogram bucket that holds a percentile.
+	 *
+	 * @param fraction the percentile, as a fraction between 0 and 1
+	 *
+	 * @return a number of microseconds, or infinity if the percentile is slower than all the bucket bounds
+	 */
+	private double getLatencyPercentile(double fraction) {
+		long[] counts = metrics.getLatencyCounts();
+		long total = 0;
+		for (long count : counts) {
+			total += count;
+		}
+		if (total == 0) {
+			return 0.0;
+		}
+		long cumulative = 0;
+		for (int i = 0; i < UorfMetrics.LATENCY_BUCKETS.length; i++) {
+			cumulative += counts[i];
+			if (cumulative >= fraction * total) {
+				return UorfMetrics.LATENCY_BUCKETS[i] * 1e6;
+			}
+		}
+		return Double.POSITIVE_INFINITY;
+	}
+
+	public double[] getLatencyBucketsMicros() {
+		double[] retval = new double[UorfMetrics.LATENCY_BUCKETS.length];
+		for (int i = 0; i < retval.length; i++) {
+			retval[i] = UorfMetrics.LATENCY_BUCKETS[i] * 1e6;
+		}
+		return retval;
+	}
+
+	public long[] getLatencyHistogram() {
+		return metrics.getLatencyCounts();
+	}
+
+	public int getCacheEntries() {
+		return cache.getEntryCount();
+	}
+
+	public long getCacheBytes() {
+		return cache.getBytes();
+	}
+
+	public long getCacheMaxBytes() {
+		return cache.getMaxBytes();
+	}
+
+	public void setCacheMaxBytes(long maxBytes) {
+		cache.setMaxBytes(maxBytes);
+	}
+
+	public long getCacheHits() {
+		return cache.getHits();
+	}
+
+	public long getCacheMisses() {
+		return cache.getMisses();
+	}
+
+	public long getCacheEvictions() {
+		return cache.getEvictions();
+	}
+
+	public double getCacheHitRatio() {
+		long hits = cache.getHits();
+		long misses = cache.getMisses();
+		return (hits + misses == 0 ? 0.0 : ((double) hits) / (hits + misses));
+	}
+
+	public void resizeCache(long megabytes) {
+		cache.setMaxBytes(megabytes * 1024 * 1024);
+	}
+
+	public void clearCache() {
+		cache.clear();
+	}
+}
@@ -0,0 +1,164 @@
+/**
+ * The JMX management interface of UorfMonitor, giving live statistics of a batch run or server, and control of its UTR sequence cache.
+ */
+public interface UorfMonitorMBean
+{
+	/**
+	 * Returns the number of calls of calculateUorfEffect so far.
+	 *
+	 * @return a long
+	 */
+	public long getCalculations();
+
+	/**
+	 * Returns the number of calls of calculateUorfEffect per second, over at least the last 10 seconds, or since the monitor was created if that is more recent. The window is longer if the rate is read less often than every 10 seconds, and reading the rate does not change what other readers see.
+	 *
+	 * @return a double
+	 */
+	public double getCalculationsPerSecond();
+
+	/**
+	 * Returns the number of server queries, or 0 for a batch run.
+	 *
+	 * @return a long
+	 */
+	public long getQueries();
+
+	/**
+	 * Returns the number of VCF records processed by a batch run, or 0 for a server.
+	 *
+	 * @return a long
+	 */
+	public long getRecords();
+
+	/**
+	 * Returns the number of server requests being handled.
+	 *
+	 * @return a long
+	 */
+	public long getInFlightRequests();
+
+	/**
+	 * Returns the number of chunks of records waiting for a batch worker thread.
+	 *
+	 * @return an int
+	 */
+	public int getWorkerQueueDepth();
+
+	/**
+	 * Returns the number of annotated chunks of records waiting for the batch writer thread, or the number of responses waiting to be sent by the socket server.
+	 *
+	 * @return an int
+	 */
+	public int getWriterQueueDepth();
+
+	/**
+	 * Returns the mean time taken by calculateUorfEffect.
+	 *
+	 * @return a number of microseconds
+	 */
+	public double getMeanLatencyMicros();
+
+	/**
+	 * Returns the median time taken by calculateUorfEffect, as the upper bound of the histogram bucket that holds it.
+	 *
+	 * @return a number of microseconds
+	 */
+	public double getLatencyP50Micros();
+
+	/**
+	 * Returns the 90th percentile of the time taken by calculateUorfEffect, as the upper bound of the histogram bucket that holds it.
+	 *
+	 * @return a number of microseconds
+	 */
+	public double getLatencyP90Micros();
+
+	/**
+	 * Returns the 99th percentile of the time taken by calculateUorfEffect, as the upper bound of the histogram bucket that holds it.
+	 *
+	 * @return a number of microseconds
+	 */
+	public double getLatencyP99Micros();
+
+	/**
+	 * Returns the upper bounds of the buckets of the latency histogram.
+	 *
+	 * @return an array of numbers of microseconds
+	 */
+	public double[] getLatencyBucketsMicros();
+
+	/**
+	 * Returns the number of calls of calculateUorfEffect in each bucket of the latency histogram, with one more bucket at the end for the calls slower than all the bounds.
+	 *
+	 * @return an array of longs
+	 */
+	public long[] getLatencyHistogram();
+
+	/**
+	 * Returns the number of UTR sequences in the cache.
+	 *
+	 * @return an int
+	 */
+	public int getCacheEntries();
+
+	/**
+	 * Returns the estimated size of the UTR sequence cache.
+	 *
+	 * @return a number of bytes
+	 */
+	public long getCacheBytes();
+
+	/**
+	 * Returns the size limit of the UTR sequence cache.
+	 *
+	 * @return a number of bytes
+	 */
+	public long getCacheMaxBytes();
+
+	/**
+	 * Change the size limit of the UTR sequence cache, removing the least recently used entries if it is now too big.
+	 *
+	 * @param maxBytes a number of bytes
+	 */
+	public void setCacheMaxBytes(long maxBytes);
+
+	/**
+	 * Returns the number of UTR sequence cache hits.
+	 *
+	 * @return a long
+	 */
+	public long getCacheHits();
+
+	/**
+	 * Returns the number of UTR sequence cache misses.
+	 *
+	 * @return a long
+	 */
+	public long getCacheMisses();
+
+	/**
+	 * Returns the number of UTR sequences removed from the cache to make space for others.
+	 *
+	 * @return a long
+	 */
+	public long getCacheEvictions();
+
+	/**
+	 * Returns the fraction of UTR sequence cache lookups that were hits.
+	 *
+	 * @return a double between 0 and 1
+	 */
+	public double getCacheHitRatio();
+
+	/**
+	 * Change the size limit of the UTR sequence cache, removing the least recently used entries if it is now too big.
+	 *
+	 * @param megabytes the new size limit, in megabytes
+	 */
+	public void resizeCache(long megabytes);
+
+	/**
+	 * Remove all the entries from the UTR sequence cache.
+	 */
+	public void clearCache();
+}
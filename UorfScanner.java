@@ -0,0 +1,575 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds the uORFs in a 5-prime UTR sequence, keeping track of where each one is, so that the search of an alternate sequence can reuse the results from the reference sequence.
+ * <p>
+ * A variant only changes the codons close to it. In each coding frame, the codons before the variant are read in the same way as in the reference, and the codons after the variant are read in the same way as one of the reference frames, only shifted by the length change of the variant. So only a window around the variant is searched again, from the start of any uORF that is open just before the variant, to the first codon after the variant where neither the alternate nor the reference sequence is inside a uORF. The uORFs and visualisation text outside the window are copied from the reference.
+ * <p>
+ * The reference sequence is read only once, with the three coding frames searched side by side. Building the visualisation text is optional, as most callers only need the uORFs. Sequences are read as byte arrays of ASCII bases. Each codon is classified by encoding its three bases as two bits each, and looking up the resulting six-bit number in a 64-entry table, so no objects are created for each codon.
+ * <p>
+ * The results are identical to searching the whole alternate sequence with Uorf.findUorfs, which can be checked with UorfDifferentialCheck.
+ */
+class UorfScanner
+{
+	private static final byte OTHER = 0;
+	private static final byte START = 1;
+	private static final byte STOP = 2;
+
+	/**
+	 * The two-bit code of each base, or -1 for anything other than upper-case A, C, G and T, which can never be part of a start or stop codon.
+	 */
+	private static final byte[] BASE_CODES = new byte[256];
+
+	/**
+	 * Whether each codon is a start codon, a stop codon, or neither, indexed by the two-bit codes of its bases.
+	 */
+	private static final byte[] CODON_TYPES = new byte[64];
+
+	static {
+		Arrays.fill(BASE_CODES, (byte) -1);
+		BASE_CODES['A'] = 0;
+		BASE_CODES['C'] = 1;
+		BASE_CODES['G'] = 2;
+		BASE_CODES['T'] = 3;
+		CODON_TYPES[codonIndex('A', 'T', 'G')] = START;
+		CODON_TYPES[codonIndex('T', 'A', 'A')] = STOP;
+		CODON_TYPES[codonIndex('T', 'A', 'G')] = STOP;
+		CODON_TYPES[codonIndex('T', 'G', 'A')] = STOP;
+	}
+
+	private static int codonIndex(char a, char b, char c) {
+		return (BASE_CODES[a] << 4) | (BASE_CODES[b] << 2) | BASE_CODES[c];
+	}
+
+	/**
+	 * Classify the codon at a position.
+	 *
+	 * @param bases the sequence
+	 * @param i the position of the first base of the codon
+	 *
+	 * @return START, STOP or OTHER
+	 */
+	private static byte codonType(byte[] bases, int i) {
+		int a = BASE_CODES[bases[i] & 0xff];
+		int b = BASE_CODES[bases[i + 1] & 0xff];
+		int c = BASE_CODES[bases[i + 2] & 0xff];
+		// Any invalid base makes the combined code negative
+		int index = (a << 4) | (b << 2) | c;
+		return (index < 0 ? OTHER : CODON_TYPES[index]);
+	}
+
+	/**
+	 * The uORFs found in one coding frame of a sequence, in order of position, with the visualisation of the frame.
+	 * Each uORF is held as the positions of its start and stop codons and its strength, which are enough to describe it, and optionally also as a Uorf object.
+	 */
+	static class Frame
+	{
+		private int offset;
+		private int length;
+		private int count = 0;
+		private int[] starts = new int[4];
+		private int[] stops = new int[4];
+		private int[] strengths = new int[4];
+		private Uorf[] uorfs = new Uorf[4];
+		private String visualisation;
+
+		/**
+		 * Creates an empty frame.
+		 *
+		 * @param offset the position of the first base of the first whole codon
+		 * @param length the length of the sequence
+		 */
+		Frame(int offset, int length) {
+			this.offset = offset;
+			this.length = length;
+		}
+
+		/**
+		 * Empty the frame, so that it can be reused for another sequence.
+		 *
+		 * @param offset the position of the first base of the first whole codon
+		 * @param length the length of the sequence
+		 */
+		void reset(int offset, int length) {
+			Arrays.fill(uorfs, 0, count, null);
+			this.offset = offset;
+			this.length = length;
+			count = 0;
+			visualisation = null;
+		}
+
+		/**
+		 * Add a uORF to the end of the frame.
+		 *
+		 * @param start the position of the start codon
+		 * @param stop the position of the stop codon, or -1 if the uORF carries on to the end of the sequence
+		 * @param strength the strength of the start codon
+		 * @param uorf the Uorf, or null to only create it if it is asked for
+		 */
+		void add(int start, int stop, int strength, Uorf uorf) {
+			if (count == starts.length) {
+				starts = Arrays.copyOf(starts, count * 2);
+				stops = Arrays.copyOf(stops, count * 2);
+				strengths = Arrays.copyOf(strengths, count * 2);
+				uorfs = Arrays.copyOf(uorfs, count * 2);
+			}
+			starts[count] = start;
+			stops[count] = stop;
+			strengths[count] = strength;
+			uorfs[count++] = uorf;
+		}
+
+		/**
+		 * Find the first uORF that has not stopped before a position. The position is inside that uORF if the uORF starts before it.
+		 *
+		 * @param position the position of a codon in this frame
+		 * @param from the index of a uORF known to be no later than the answer
+		 *
+		 * @return the index of the uORF, or the number of uORFs if they have all stopped
+		 */
+		private int firstNotStoppedBefore(int position, int from) {
+			while ((from < count) && (stops[from] != -1) && (stops[from] < position)) {
+				from++;
+			}
+			return from;
+		}
+
+		/**
+		 * Returns the position of the first base of the first whole codon in this frame.
+		 *
+		 * @return an int
+		 */
+		int getOffset() {
+			return offset;
+		}
+
+		/**
+		 * Returns the number of uORFs in this frame.
+		 *
+		 * @return an int
+		 */
+		int getCount() {
+			return count;
+		}
+
+		/**
+		 * Returns the position of the start codon of a uORF in this frame.
+		 *
+		 * @param index the index of the uORF, in order of position
+		 *
+		 * @return an int
+		 */
+		int getStart(int index) {
+			return starts[index];
+		}
+
+		/**
+		 * Returns the position of the stop codon of a uORF in this frame.
+		 *
+		 * @param index the index of the uORF, in order of position
+		 *
+		 * @return an int, or -1 if the uORF carries on to the end of the sequence
+		 */
+		int getStop(int index) {
+			return stops[index];
+		}
+
+		/**
+		 * Returns a uORF in this frame.
+		 *
+		 * @param index the index of the uORF, in order of position
+		 *
+		 * @return a Uorf, which is a new object if the frame was searched without creating them
+		 */
+		Uorf getUorf(int index) {
+			Uorf retval = uorfs[index];
+			return (retval != null ? retval : newUorf(length, starts[index], stops[index], strengths[index]));
+		}
+
+		/**
+		 * Add all the uORFs in this frame to a list, in order of position.
+		 *
+		 * @param list the List to add to
+		 */
+		void addTo(List<Uorf> list) {
+			for (int i = 0; i < count; i++) {
+				list.add(getUorf(i));
+			}
+		}
+
+		/**
+		 * Returns the visualisation of this frame, as described in UorfResult.getVisualisations().
+		 *
+		 * @return a String, or null if the frame was searched without building it
+		 */
+		String getVisualisation() {
+			return visualisation;
+		}
+	}
+
+	/**
+	 * Find the uORFs in all three coding frames of a whole sequence, reading the sequence once.
+	 * Each base is added to a rolling six-bit code of the last three bases, and the codon ending at that base is given to the frame that reads it, so that the three frames are searched side by side.
+	 *
+	 * @param bases the sequence, upper-case and reading towards the start of the gene
+	 * @param visualise whether to build the visualisation of each frame. If false, then getVisualisation() returns null
+	 *
+	 * @return an array of three Frames, where frame k has offset (length + k) % 3
+	 */
+	static Frame[] scanFrames(byte[] bases, boolean visualise) {
+		int length = bases.length;
+		Frame[] retval = new Frame[3];
+		// The reader of each frame, indexed by the position of its codons modulo 3
+		FrameReader[] readers = new FrameReader[3];
+		for (int k = 0; k < 3; k++) {
+			int offset = (length + k) % 3;
+			retval[k] = new Frame(offset, length);
+			StringBuilder visualisation = null;
+			if (visualise) {
+				visualisation = new StringBuilder(length * 4 / 3 + 4);
+				if (offset > 0) {
+					appendLowerCase(visualisation, bases, 0, Math.min(offset, length));
+					visualisation.append(' ');
+				}
+			}
+			readers[offset] = new FrameReader().reset(retval[k], visualisation, true);
+		}
+		int code = 0;
+		int lastInvalid = -1;
+		int phase = 0;
+		for (int j = 0; j < length; j++) {
+			int base = BASE_CODES[bases[j] & 0xff];
+			if (base < 0) {
+				lastInvalid = j;
+				base = 0;
+			}
+			code = ((code << 2) | base) & 63;
+			int i = j - 2;
+			if (i >= 0) {
+				readers[phase].read(bases, i, (lastInvalid >= i ? OTHER : CODON_TYPES[code]));
+				phase = (phase == 2 ? 0 : phase + 1);
+			}
+		}
+		for (int k = 0; k < 3; k++) {
+			int offset = retval[k].offset;
+			// The position after the last whole codon in the frame
+			readers[offset].finish(bases, offset + 3 * Math.max(0, (length - offset) / 3));
+			if (visualise) {
+				retval[k].visualisation = readers[offset].visualisation.toString();
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * Find the uORFs in all three coding frames of an alternate sequence, by searching again only around the variant.
+	 *
+	 * @param refFrames the three frames of the reference sequence, as found by scanFrames, where frame k has offset (length + k) % 3. These must have visualisations if visualise is true
+	 * @param refLength the length of the reference sequence
+	 * @param altBases the alternate sequence
+	 * @param variantStart the position of the variant in both sequences
+	 * @param refAlleleLength the length of the reference allele
+	 * @param uorfs a List to add the uORFs in the alternate sequence to, in the same order as Uorf.findUorfs would for frames 0, 1 and 2
+	 * @param visualise whether to build the visualisations of the alternate sequence
+	 *
+	 * @return the three visualisations of the alternate sequence, or null if visualise is false
+	 */
+	static String[] findAltUorfs(Frame[] refFrames, int refLength, byte[] altBases, int variantStart, int refAlleleLength, List<Uorf> uorfs, boolean visualise) {
+		AltSearch search = new AltSearch();
+		String[] retval = search.search(refFrames, refLength, altBases, altBases.length, variantStart, refAlleleLength, visualise, true);
+		search.addTo(uorfs);
+		return retval;
+	}
+
+	/**
+	 * Creates a Uorf from its position in a sequence.
+	 *
+	 * @param length the length of the sequence
+	 * @param start the position of the start codon
+	 * @param stop the position of the stop codon, or -1 if the uORF carries on to the end of the sequence
+	 * @param strength the strength of the start codon
+	 *
+	 * @return a Uorf
+	 */
+	private static Uorf newUorf(int length, int start, int stop, int strength) {
+		if (stop != -1) {
+			return new Uorf(length - start, length + 3 - stop, strength, Uorf.UorfType.NON_OVERLAPPING);
+		}
+		// A uORF that carries on to the end of the sequence is in frame with the gene if it ends on a whole codon
+		return new Uorf(length - start, 0, strength, ((length - start) % 3 == 0 ? Uorf.UorfType.EXTENDING : Uorf.UorfType.FRAMESHIFT));
+	}
+
+	/**
+	 * Space for searching alternate sequences, which one thread can reuse for one search after another, so that a search that only needs the most "damaging" uORF creates no objects.
+	 */
+	static class AltSearch
+	{
+		private Frame[] frames = new Frame[] {new Frame(0, 0), new Frame(0, 0), new Frame(0, 0)};
+		private FrameReader reader = new FrameReader();
+
+		/**
+		 * Find the uORFs in all three coding frames of an alternate sequence, by searching again only around the variant, and keep them in this object's frames.
+		 *
+		 * @param refFrames the three frames of the reference sequence, as found by scanFrames, where frame k has offset (length + k) % 3. These must have visualisations if visualise is true
+		 * @param refLength the length of the reference sequence
+		 * @param altBases the alternate sequence, which may be longer than altLength, with the rest unused
+		 * @param altLength the length of the alternate sequence
+		 * @param variantStart the position of the variant in both sequences
+		 * @param refAlleleLength the length of the reference allele
+		 * @param visualise whether to build the visualisations of the alternate sequence
+		 * @param objects whether to create a Uorf for each uORF found, rather than only when it is asked for
+		 *
+		 * @return the three visualisations of the alternate sequence, or null if visualise is false
+		 */
+		String[] search(Frame[] refFrames, int refLength, byte[] altBases, int altLength, int variantStart, int refAlleleLength, boolean visualise, boolean objects) {
+			int delta = altLength - refLength;
+			int variantEnd = variantStart + refAlleleLength + delta;
+			String[] retval = (visualise ? new String[3] : null);
+			for (int k = 0; k < 3; k++) {
+				int offset = (altLength + k) % 3;
+				// Before the variant, the codons are the same as the reference frame that starts at the same offset
+				Frame prefixFrame = refFrames[(((offset - refLength) % 3) + 3) % 3];
+				// After the variant, the codons are the same as the reference frame in the same position relative to the gene
+				Frame suffixFrame = refFrames[k];
+				Frame altFrame = frames[k];
+				altFrame.reset(offset, altLength);
+				StringBuilder visualisation = (visualise ? new StringBuilder(altLength * 4 / 3 + 4) : null);
+				int resync;
+				// The base before a start codon affects its strength, so the window starts at least one codon before the variant
+				int windowStart = variantStart - 3;
+				if (windowStart < offset) {
+					// The variant is too close to the start to reuse anything
+					if (visualise && (offset > 0)) {
+						appendLowerCase(visualisation, altBases, 0, Math.min(offset, altLength));
+						visualisation.append(' ');
+					}
+					resync = scan(altBases, offset, reader.reset(altFrame, visualisation, objects), suffixFrame, variantEnd + 3, delta);
+				} else {
+					windowStart -= (windowStart - offset) % 3;
+					// If a uORF is open across the window start, then search it again from its start codon
+					int open = prefixFrame.firstNotStoppedBefore(windowStart, 0);
+					if ((open < prefixFrame.count) && (prefixFrame.starts[open] < windowStart)) {
+						windowStart = prefixFrame.starts[open];
+					}
+					// The uORFs before the window have stopped, and are only further from the gene by the length change
+					for (int i = 0; i < open; i++) {
+						Uorf uorf = prefixFrame.uorfs[i];
+						if ((delta != 0) || (uorf == null)) {
+							uorf = (objects ? newUorf(altLength, prefixFrame.starts[i], prefixFrame.stops[i], prefixFrame.strengths[i]) : null);
+						}
+						altFrame.add(prefixFrame.starts[i], prefixFrame.stops[i], prefixFrame.strengths[i], uorf);
+					}
+					if (visualise) {
+						visualisation.append(prefixFrame.visualisation, 0, visualisationIndex(offset, windowStart));
+					}
+					resync = scan(altBases, windowStart, reader.reset(altFrame, visualisation, objects), suffixFrame, variantEnd + 3, delta);
+				}
+				if (resync != -1) {
+					// The rest of the frame is the same as the reference, apart from the positions
+					int refPosition = resync - delta;
+					for (int i = suffixFrame.firstNotStoppedBefore(refPosition, 0); i < suffixFrame.count; i++) {
+						altFrame.add(suffixFrame.starts[i] + delta, (suffixFrame.stops[i] == -1 ? -1 : suffixFrame.stops[i] + delta), suffixFrame.strengths[i], suffixFrame.uorfs[i]);
+					}
+					if (visualise) {
+						visualisation.append(suffixFrame.visualisation, visualisationIndex(suffixFrame.offset, refPosition), suffixFrame.visualisation.length());
+					}
+				}
+				if (visualise) {
+					retval[k] = visualisation.toString();
+				}
+			}
+			return retval;
+		}
+
+		/**
+		 * Add all the uORFs found by the last search to a list, in the same order as Uorf.findUorfs would for frames 0, 1 and 2.
+		 *
+		 * @param list the List to add to
+		 */
+		void addTo(List<Uorf> list) {
+			for (Frame frame : frames) {
+				frame.addTo(list);
+			}
+		}
+
+		/**
+		 * Returns the number of uORFs found by the last search.
+		 *
+		 * @return an int
+		 */
+		int getCount() {
+			return frames[0].count + frames[1].count + frames[2].count;
+		}
+
+		/**
+		 * Returns the most "damaging" uORF found by the last search, which is the one that would be first if they were all sorted. Only this uORF is created, if the search did not create them all.
+		 *
+		 * @return a Uorf, or null if no uORFs were found
+		 */
+		Uorf getBest() {
+			Frame bestFrame = null;
+			int best = -1;
+			int bestRank = 0, bestStrength = 0, bestDistance = 0;
+			for (Frame frame : frames) {
+				for (int i = 0; i < frame.count; i++) {
+					int distance = frame.length - frame.starts[i];
+					// The same order as Uorf.compareTo: out-of-frame first, then in-frame, then non-overlapping, then by strength, then by distance
+					int rank = (frame.stops[i] != -1 ? 2 : (distance % 3 == 0 ? 1 : 0));
+					int strength = frame.strengths[i];
+					if ((best == -1) || (rank < bestRank) || ((rank == bestRank) && ((strength > bestStrength) || ((strength == bestStrength) && (distance < bestDistance))))) {
+						bestFrame = frame;
+						best = i;
+						bestRank = rank;
+						bestStrength = strength;
+						bestDistance = distance;
+					}
+				}
+			}
+			return (bestFrame == null ? null : bestFrame.getUorf(best));
+		}
+	}
+
+	/**
+	 * Returns the position in a visualisation of the codon at a position in the sequence.
+	 *
+	 * @param offset the position of the first base of the first whole codon
+	 * @param position the position of a codon in the sequence
+	 *
+	 * @return an int
+	 */
+	private static int visualisationIndex(int offset, int position) {
+		return (offset > 0 ? offset + 1 : 0) + ((position - offset) / 3) * 4;
+	}
+
+	/**
+	 * Read codons in one frame, starting outside a uORF, in the same way as Uorf.findUorfs.
+	 * If a reference frame is given, then the search stops at the first codon from a given position onwards where neither the sequence nor the reference frame is inside a uORF, as the rest of the frame is then the same as the reference.
+	 *
+	 * @param bases the sequence, which may be longer than the length of the reader's frame, with the rest unused
+	 * @param i the position of the first codon to read
+	 * @param reader the reader of the Frame to add uORFs to, with the visualisation text if it is being built
+	 * @param refFrame the reference frame to compare with, or null to read to the end of the sequence
+	 * @param resyncFrom the first position where the search may stop
+	 * @param delta the difference in position between the sequence and the reference frame after the variant
+	 *
+	 * @return the position where the search stopped, or -1 if it reached the end of the sequence
+	 */
+	private static int scan(byte[] bases, int i, FrameReader reader, Frame refFrame, int resyncFrom, int delta) {
+		int length = reader.frame.length;
+		int refIndex = 0;
+		for (; i < length - 2; i += 3) {
+			if ((refFrame != null) && (!reader.inUorf) && (i >= resyncFrom)) {
+				refIndex = refFrame.firstNotStoppedBefore(i - delta, refIndex);
+				if ((refIndex == refFrame.count) || (refFrame.starts[refIndex] >= i - delta)) {
+					return i;
+				}
+			}
+			reader.read(bases, i, codonType(bases, i));
+		}
+		reader.finish(bases, i);
+		return -1;
+	}
+
+	/**
+	 * Reads the codons of one frame in order, in the same way as Uorf.findUorfs, adding the uORFs found to a Frame and the visualisation text to a StringBuilder, if there is one.
+	 * The sequence is read up to the length of the Frame, so it can be a reused array that is longer than the sequence.
+	 */
+	private static class FrameReader
+	{
+		private Frame frame;
+		private StringBuilder visualisation;
+		private boolean objects;
+		private boolean inUorf;
+		private int start;
+		private int strength;
+
+		/**
+		 * Start reading a frame, forgetting any frame that was read before.
+		 *
+		 * @param frame the Frame to add uORFs to
+		 * @param visualisation where to add the visualisation text, or null to not build it
+		 * @param objects whether to create a Uorf for each uORF found, rather than only when it is asked for
+		 *
+		 * @return this FrameReader
+		 */
+		private FrameReader reset(Frame frame, StringBuilder visualisation, boolean objects) {
+			this.frame = frame;
+			this.visualisation = visualisation;
+			this.objects = objects;
+			inUorf = false;
+			start = 0;
+			strength = 0;
+			return this;
+		}
+
+		/**
+		 * Read the next codon in the frame.
+		 *
+		 * @param bases the sequence
+		 * @param i the position of the first base of the codon
+		 * @param type the type of the codon, as given by codonType
+		 */
+		private void read(byte[] bases, int i, byte type) {
+			if (inUorf) {
+				if (visualisation != null) {
+					appendBases(visualisation, bases, i, i + 3);
+					visualisation.append(' ');
+				}
+				if (type == STOP) {
+					frame.add(start, i, strength, (objects ? newUorf(frame.length, start, i, strength) : null));
+					inUorf = false;
+				}
+			} else if (type == START) {
+				inUorf = true;
+				start = i;
+				strength = 1;
+				if ((i >= 3) && ((bases[i - 3] == 'A') || (bases[i - 3] == 'G'))) {
+					strength++;
+				}
+				if ((i + 3 < frame.length) && (bases[i + 3] == 'G')) {
+					strength++;
+				}
+				if (visualisation != null) {
+					visualisation.append("ATG").append(strength);
+				}
+			} else if (visualisation != null) {
+				appendLowerCase(visualisation, bases, i, i + 3);
+				visualisation.append(' ');
+			}
+		}
+
+		/**
+		 * Finish the frame, adding any uORF that carries on to the end of the sequence, and the bases left over after the last whole codon.
+		 *
+		 * @param bases the sequence
+		 * @param i the position after the last whole codon in the frame
+		 */
+		private void finish(byte[] bases, int i) {
+			int length = frame.length;
+			if (inUorf) {
+				frame.add(start, -1, strength, (objects ? newUorf(length, start, -1, strength) : null));
+			}
+			if (visualisation != null) {
+				if (inUorf) {
+					appendBases(visualisation, bases, i, length);
+				} else {
+					appendLowerCase(visualisation, bases, i, length);
+				}
+			}
+		}
+	}
+
+	private static void appendBases(StringBuilder visualisation, byte[] bases, int from, int to) {
+		for (int i = from; i < to; i++) {
+			visualisation.append((char) (bases[i] & 0xff));
+		}
+	}
+
+	private static void appendLowerCase(StringBuilder visualisation, byte[] bases, int from, int to) {
+		for (int i = from; i < to; i++) {
+			int c = bases[i] & 0xff;
+			visualisation.append((char) ((c >= 'A') && (c <= 'Z') ? c + ('a' - 'A') : c));
+		}
+	}
+}
@@ -0,0 +1,453 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A long-running HTTP server that answers uORF queries, keeping the reference genome, the transcripts and the UTR sequence cache loaded between queries, so that each answer takes milliseconds rather than the time to start Java.
+ * <p>
+ * Queries are sent by POST to /annotate as JSON. A query is an object with the fields "chr", "pos", "ref" and "alt", describing the variant in the same way as the arguments to Uorf. The transcripts checked are either all the loaded transcripts that contain the variant, or only the one named by an optional "transcript" field, or a 5-prime UTR given in the query in the same way as the arguments to Uorf, with "strand" (1 or -1) and "utr" (an array of start and end positions). If "visualise" is true, then the visualisations are included in the results. The body can be a single query, or an array of queries, which are answered in order.
+ * <p>
+ * Each answer is the query, with a "results" field added holding an array with one object for each transcript, with the fields "transcript", "effect", "loss", "uorf", "refUorfs", "altUorfs", and optionally "visualisations", which are the same as the fields of UorfResult. If a query cannot be answered, then it has an "error" field instead. A request that is not valid JSON, or that gives a "utr" without a start and end position for each exon or longer than MAX_UTR_LENGTH bases, gets a 400 response instead, and a request body longer than MAX_BODY_BYTES gets a 413 response.
+ * <p>
+ * Requests are handled on virtual threads if the Java version has them, or on a pool of threads otherwise. The server only listens on the loopback address.
+ * <p>
+ * Counters of the requests, effects, calculation times, reference reads and cache use can be read by GET from /metrics, in the Prometheus text format. They can also be watched with jconsole, and the cache resized or cleared, through the UorfMonitor MBean.
+ */
+public class UorfServer
+{
+	/**
+	 * The default port to listen on.
+	 */
+	public static final int DEFAULT_PORT = 8080;
+
+	/**
+	 * The largest request body accepted, in bytes. Larger requests get a 413 response.
+	 */
+	public static final int MAX_BODY_BYTES = 16 * 1024 * 1024;
+
+	/**
+	 * The largest total length of the exons of a 5-prime UTR given in a query, in bases, so that one query cannot read a whole chromosome.
+	 */
+	public static final int MAX_UTR_LENGTH = 100000;
+
+	private UorfCalculator calculator;
+	private FivePrimeUtrIndex utrIndex;
+	private HttpServer server;
+	private ExecutorService executor;
+	private UorfMetrics metrics = new UorfMetrics();
+	private UtrInterner utrInterner = new UtrInterner();
+
+	/**
+	 * Start a server, according to the command-line arguments.
+	 * <ul><li>Optionally, "-p" followed by the port to listen on. The default is 8080.</li>
+	 *     <li>Optionally, "-c" followed by the size of the UTR sequence cache in megabytes. The default is 256.</li>
+	 *     <li>The reference genome, in any format that ReferenceProvider.open understands, or "-" if the transcripts are a UTR pack.</li>
+	 *     <li>Optionally, a file describing the transcripts, in any format that TranscriptLoader understands. Without this, queries must give their own 5-prime UTR.</li>
+	 * </ul>
+	 * For instance:<br>
+	 * java UorfServer -p 8080 human_g1k_v37.fasta gencode.v19.annotation.gtf.gz
+	 *
+	 * @param args the command-line arguments
+	 */
+	public static void main(String[] args) throws Exception {
+		int port = DEFAULT_PORT;
+		long cacheBytes = UtrSequenceCache.DEFAULT_MAX_BYTES;
+		int argStart = 0;
+		while ((args.length > argStart + 1) && args[argStart].startsWith("-") && (args[argStart].length() > 1)) {
+			if ("-p".equals(args[argStart])) {
+				port = Integer.parseInt(args[argStart + 1]);
+			} else if ("-c".equals(args[argStart])) {
+				cacheBytes = Long.parseLong(args[argStart + 1]) * 1024 * 1024;
+			} else {
+				break;
+			}
+			argStart += 2;
+		}
+		if ((args.length - argStart != 1) && (args.length - argStart != 2)) {
+			System.err.println("Usage: java UorfServer [-p port] [-c cache_megabytes] <genome> [annotation]");
+			System.exit(1);
+		}
+		ReferenceProvider reference = ("-".equals(args[argStart]) ? null : ReferenceProvider.open(new File(args[argStart])));
+		List<Uorf.FivePrimeUtr> utrs = (args.length - argStart == 2 ? TranscriptLoader.load(new File(args[argStart + 1])) : new ArrayList<Uorf.FivePrimeUtr>());
+		UorfServer server = new UorfServer(reference, new FivePrimeUtrIndex(utrs), new UtrSequenceCache(cacheBytes));
+		new UorfMonitor(server).register("server");
+		server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+		System.err.println("Listening on http://localhost:" + port + "/annotate with " + utrs.size() + " transcripts");
+	}
+
+	/**
+	 * Creates a new server, which does not listen until it is started.
+	 *
+	 * @param reference the reference genome, which must allow reads from several threads at once, or null if all the transcripts come from a UtrPack and queries do not give their own 5-prime UTR
+	 * @param utrIndex an index of the transcripts that queries are checked against
+	 * @param cache a cache of spliced UTR sequences, shared by all requests
+	 */
+	public UorfServer(ReferenceProvider reference, FivePrimeUtrIndex utrIndex, UtrSequenceCache cache) {
+		this.calculator = UorfCalculator.builder().reference(metrics.countReads(reference)).cache(cache).listener(metrics).build();
+		this.utrIndex = utrIndex;
+	}
+
+	/**
+	 * Start listening for requests.
+	 *
+	 * @param address the address and port to listen on
+	 */
+	public void start(InetSocketAddress address) throws IOException {
+		// The response headers and body are written separately, so without this each response waits for the client's delayed acknowledgement, which adds about 40ms
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+		server = HttpServer.create(address, 0);
+		executor = newExecutor();
+		server.setExecutor(executor);
+		server.createContext("/annotate", this::handleAnnotate);
+		server.createContext("/metrics", this::handleMetrics);
+		server.start();
+	}
+
+	/**
+	 * Stop listening, and wait up to a given time for requests that are being handled to finish.
+	 *
+	 * @param delay the maximum time to wait, in seconds
+	 */
+	public void stop(int delay) {
+		server.stop(delay);
+		executor.shutdown();
+	}
+
+	/**
+	 * Returns the cache of spliced UTR sequences.
+	 *
+	 * @return a UtrSequenceCache
+	 */
+	public UtrSequenceCache getCache() {
+		return calculator.getCache();
+	}
+
+	/**
+	 * Returns the counters of the work done by the server.
+	 *
+	 * @return a UorfMetrics
+	 */
+	public UorfMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Create an executor that runs each task on a new virtual thread, if this Java version has them, or on a pool of platform threads otherwise.
+	 *
+	 * @return an ExecutorService
+	 */
+	static ExecutorService newExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			// Virtual threads need Java 21
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	private void handleAnnotate(HttpExchange exchange) throws IOException {
+		metrics.requestStarted("/annotate");
+		try {
+			if (!"POST".equals(exchange.getRequestMethod())) {
+				exchange.getResponseHeaders().set("Allow", "POST");
+				sendError(exchange, 405, "Queries must be sent with POST");
+				return;
+			}
+			String text = readBody(exchange.getRequestBody());
+			if (text == null) {
+				sendError(exchange, 413, "Requests must be at most " + MAX_BODY_BYTES + " bytes");
+				return;
+			}
+			Object body;
+			try {
+				body = Json.parse(text);
+			} catch (IllegalArgumentException e) {
+				sendError(exchange, 400, "Invalid JSON: " + e.getMessage());
+				return;
+			}
+			try {
+				if (body instanceof List) {
+					for (Object query : (List<?>) body) {
+						checkUtr(query);
+					}
+				} else {
+					checkUtr(body);
+				}
+			} catch (IllegalArgumentException e) {
+				sendError(exchange, 400, e.getMessage());
+				return;
+			}
+			StringBuilder json = new StringBuilder();
+			if (body instanceof List) {
+				json.append('[');
+				boolean first = true;
+				for (Object query : (List<?>) body) {
+					if (!first) {
+						json.append(',');
+					}
+					first = false;
+					annotate(query, json);
+				}
+				json.append(']');
+			} else {
+				annotate(body, json);
+			}
+			send(exchange, 200, json.toString());
+		} finally {
+			metrics.requestFinished();
+			exchange.close();
+		}
+	}
+
+	private void handleMetrics(HttpExchange exchange) throws IOException {
+		metrics.requestStarted("/metrics");
+		try {
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				exchange.getResponseHeaders().set("Allow", "GET");
+				sendError(exchange, 405, "Metrics must be read with GET");
+				return;
+			}
+			StringBuilder text = new StringBuilder();
+			metrics.writePrometheus(text, calculator.getCache());
+			byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+			exchange.sendResponseHeaders(200, bytes.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(bytes);
+			}
+		} finally {
+			metrics.requestFinished();
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Read the body of a request, unless it is too long.
+	 *
+	 * @param in the body
+	 *
+	 * @return the body as text, or null if it is longer than MAX_BODY_BYTES
+	 */
+	private static String readBody(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int count;
+		while ((count = in.read(buffer)) != -1) {
+			if (bytes.size() + count > MAX_BODY_BYTES) {
+				return null;
+			}
+			bytes.write(buffer, 0, count);
+		}
+		return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static void send(HttpExchange exchange, int status, String json) throws IOException {
+		byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+		StringBuilder json = new StringBuilder("{\"error\":");
+		Json.appendString(json, message);
+		json.append('}');
+		send(exchange, status, json.toString());
+	}
+
+	/**
+	 * Answer one query, appending the answer to some JSON.
+	 *
+	 * @param query the query, as read by Json.parse
+	 * @param json the JSON being written
+	 */
+	private void annotate(Object query, StringBuilder json) {
+		if (!(query instanceof Map)) {
+			metrics.recordQuery(true);
+			json.append("{\"error\":\"A query must be a JSON object\"}");
+			return;
+		}
+		Map<?, ?> fields = (Map<?, ?>) query;
+		json.append('{');
+		int start = json.length();
+		for (Map.Entry<?, ?> entry : fields.entrySet()) {
+			Object value = entry.getValue();
+			// Echo the query, so that answers to a batch can be matched up with their queries
+			if ("results".equals(entry.getKey()) || "error".equals(entry.getKey())) {
+				continue;
+			}
+			if ((value == null) || (value instanceof String) || (value instanceof Number) || (value instanceof Boolean)) {
+				json.append(json.length() == start ? "" : ",");
+				Json.appendString(json, (String) entry.getKey());
+				json.append(':');
+				if (value instanceof String) {
+					Json.appendString(json, (String) value);
+				} else {
+					json.append(value);
+				}
+			}
+		}
+		json.append(json.length() == start ? "" : ",");
+		int resultsStart = json.length();
+		try {
+			String chr = getString(fields, "chr");
+			int pos = getInt(fields, "pos");
+			String ref = getString(fields, "ref");
+			String alt = getString(fields, "alt");
+			boolean visualise = Boolean.TRUE.equals(fields.get("visualise"));
+			List<Uorf.FivePrimeUtr> utrs;
+			if (fields.get("utr") != null) {
+				// Already checked by checkUtr
+				List<?> coordinates = (List<?>) fields.get("utr");
+				int[] positions = new int[coordinates.size()];
+				for (int i = 0; i < positions.length; i++) {
+					positions[i] = ((Long) coordinates.get(i)).intValue();
+				}
+				utrs = Collections.singletonList(utrInterner.get(chr, getInt(fields, "strand") > 0, positions));
+			} else {
+				utrs = utrIndex.getOverlapping(chr, pos, pos + ref.length() - 1);
+				Object transcript = fields.get("transcript");
+				if (transcript != null) {
+					List<Uorf.FivePrimeUtr> named = new ArrayList<Uorf.FivePrimeUtr>();
+					for (Uorf.FivePrimeUtr utr : utrs) {
+						if (transcript.equals(utr.getName())) {
+							named.add(utr);
+						}
+					}
+					utrs = named;
+				}
+			}
+			json.append("\"results\":[");
+			for (int i = 0; i < utrs.size(); i++) {
+				if (i > 0) {
+					json.append(',');
+				}
+				Uorf.UorfResult result = calculator.calculateUorfEffect(utrs.get(i), chr, pos, ref, alt);
+				appendResult(json, utrs.get(i).getName(), result, visualise);
+			}
+			json.append(']');
+			metrics.recordQuery(false);
+		} catch (RuntimeException e) {
+			metrics.recordQuery(true);
+			json.setLength(resultsStart);
+			json.append("\"error\":");
+			Json.appendString(json, (e.getMessage() == null ? e.toString() : e.getMessage()));
+		}
+		json.append('}');
+	}
+
+	/**
+	 * Check that the 5-prime UTR given in a query, if any, is an array with a start and end position for each exon, and is no longer than MAX_UTR_LENGTH, so that a malformed UTR can be rejected with a 400 response.
+	 *
+	 * @param query the query, as read by Json.parse
+	 */
+	private static void checkUtr(Object query) {
+		Object utr = (query instanceof Map ? ((Map<?, ?>) query).get("utr") : null);
+		if (utr == null) {
+			return;
+		}
+		if (!(utr instanceof List) || ((List<?>) utr).isEmpty() || (((List<?>) utr).size() % 2 != 0)) {
+			throw new IllegalArgumentException("\"utr\" must be an array of start and end positions");
+		}
+		for (Object position : (List<?>) utr) {
+			if (!(position instanceof Long)) {
+				throw new IllegalArgumentException("\"utr\" must be an array of start and end positions");
+			}
+		}
+		long length = 0;
+		for (int i = 0; i < ((List<?>) utr).size(); i += 2) {
+			long start = (Long) ((List<?>) utr).get(i);
+			long end = (Long) ((List<?>) utr).get(i + 1);
+			if ((start < 1) || (end < start)) {
+				throw new IllegalArgumentException("\"utr\" exon " + start + "-" + end + " must have a start of at least 1 and no greater than its end");
+			}
+			length += end - start + 1;
+		}
+		if (length > MAX_UTR_LENGTH) {
+			throw new IllegalArgumentException("\"utr\" must be at most " + MAX_UTR_LENGTH + " bases long");
+		}
+	}
+
+	private static String getString(Map<?, ?> fields, String name) {
+		Object value = fields.get(name);
+		if (!(value instanceof String)) {
+			throw new IllegalArgumentException("\"" + name + "\" must be a string");
+		}
+		return (String) value;
+	}
+
+	private static int getInt(Map<?, ?> fields, String name) {
+		Object value = fields.get(name);
+		if (!(value instanceof Long)) {
+			throw new IllegalArgumentException("\"" + name + "\" must be a whole number");
+		}
+		return ((Long) value).intValue();
+	}
+
+	private static void appendResult(StringBuilder json, String transcript, Uorf.UorfResult result, boolean visualise) {
+		json.append("{\"transcript\":");
+		Json.appendString(json, transcript);
+		json.append(",\"effect\":");
+		Json.appendString(json, result.getEffect());
+		json.append(",\"loss\":").append(result.isLoss());
+		json.append(",\"uorf\":");
+		appendUorf(json, result.getUorf());
+		json.append(",\"refUorfs\":");
+		appendUorfs(json, result.getRefUorfs());
+		json.append(",\"altUorfs\":");
+		appendUorfs(json, result.getAltUorfs());
+		if (visualise) {
+			json.append(",\"visualisations\":");
+			String[] visualisations = result.getVisualisations();
+			if (visualisations == null) {
+				json.append("null");
+			} else {
+				json.append('[');
+				for (int i = 0; i < visualisations.length; i++) {
+					json.append(i == 0 ? "" : ",");
+					Json.appendString(json, visualisations[i]);
+				}
+				json.append(']');
+			}
+		}
+		json.append('}');
+	}
+
+	private static void appendUorfs(StringBuilder json, List<Uorf> uorfs) {
+		if (uorfs == null) {
+			json.append("null");
+			return;
+		}
+		json.append('[');
+		for (int i = 0; i < uorfs.size(); i++) {
+			json.append(i == 0 ? "" : ",");
+			appendUorf(json, uorfs.get(i));
+		}
+		json.append(']');
+	}
+
+	private static void appendUorf(StringBuilder json, Uorf uorf) {
+		if (uorf == null) {
+			json.append("null");
+			return;
+		}
+		json.append("{\"type\":\"").append(uorf.getType()).append("\",\"distance\":").append(uorf.getDistance()).append(",\"stopDistance\":").append(uorf.getStopDistance()).append(",\"strength\":").append(uorf.getStrength()).append(",\"strengthName\":\"").append(uorf.getStrengthString()).append("\"}");
+	}
+}
@@ -0,0 +1,291 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A long-running server that answers uORF queries over a Unix domain socket, with a simple line-based protocol, for pipelines running on the same machine. This needs Java 16 or later.
+ * <p>
+ * Each request is one line, holding the same fields as the arguments to Uorf apart from the genome, separated by spaces or tabs:<br>
+ * chr position reference_allele alternate_allele gene_strand 5'UTR_start 5'UTR_end [5'UTR_start 5'UTR_end ...]
+ * <p>
+ * Each response is one line, with the tab-separated fields effect, loss (1 or 0), start codon strength, start codon distance, ORF finish distance, uORFs in the reference, and uORFs in the alternate, where "." means there is no value. A request that cannot be answered gets a line starting with "ERROR", followed by a tab and a message.
+ * <p>
+ * Requests are pipelined. A client can send many lines without waiting, and they are answered by several threads at once, but the responses are always sent in the same order as the requests.
+ * <p>
+ * The server registers a UorfMonitor MBean called "uorf:type=UorfMonitor,name=socket", to watch it with jconsole.
+ */
+public class UorfSocketServer
+{
+	/**
+	 * The number of requests on one connection that can be waiting for their responses to be sent, before the server stops reading more.
+	 */
+	public static final int MAX_PENDING = 1024;
+
+	/**
+	 * The number of requests on one connection that can be worked on at once. The rest wait in the socket until one of these is answered.
+	 */
+	public static final int MAX_WORKING = 64;
+
+	/**
+	 * The number of different 5-prime UTRs remembered, so that requests for the same UTR can use the UTR sequence cache.
+	 */
+	public static final int MAX_UTRS = UtrInterner.DEFAULT_MAX_UTRS;
+
+	private static final int WRITE_BUFFER = 1 << 16;
+
+	private UorfCalculator calculator;
+	private ExecutorService executor = UorfServer.newExecutor();
+	private UtrInterner utrs = new UtrInterner(MAX_UTRS);
+	private UorfMetrics metrics = new UorfMetrics();
+	private Set<BlockingQueue<Future<String>>> connections = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Start a server, according to the command-line arguments.
+	 * <ul><li>Optionally, "-c" followed by the size of the UTR sequence cache in megabytes. The default is 256.</li>
+	 *     <li>The path of the socket to create. Any existing file at this path is replaced.</li>
+	 *     <li>The reference genome, in any format that ReferenceProvider.open understands.</li>
+	 * </ul>
+	 * For instance:<br>
+	 * java UorfSocketServer /tmp/uorf.sock human_g1k_v37.fasta
+	 *
+	 * @param args the command-line arguments
+	 */
+	public static void main(String[] args) throws Exception {
+		long cacheBytes = UtrSequenceCache.DEFAULT_MAX_BYTES;
+		int argStart = 0;
+		if ((args.length > 1) && "-c".equals(args[0])) {
+			cacheBytes = Long.parseLong(args[1]) * 1024 * 1024;
+			argStart = 2;
+		}
+		if (args.length - argStart != 2) {
+			System.err.println("Usage: java UorfSocketServer [-c cache_megabytes] <socket> <genome>");
+			System.exit(1);
+		}
+		UorfSocketServer server = new UorfSocketServer(ReferenceProvider.open(new File(args[argStart + 1])), new UtrSequenceCache(cacheBytes));
+		new UorfMonitor(server).register("socket");
+		server.listen(Paths.get(args[argStart]));
+	}
+
+	/**
+	 * Creates a new server.
+	 *
+	 * @param reference the reference genome, which must allow reads from several threads at once
+	 * @param cache a cache of spliced UTR sequences, shared by all connections
+	 */
+	public UorfSocketServer(ReferenceProvider reference, UtrSequenceCache cache) {
+		this.calculator = UorfCalculator.builder().reference(metrics.countReads(reference)).cache(cache).visualisations(false).listener(metrics).build();
+	}
+
+	/**
+	 * Returns the cache of spliced UTR sequences.
+	 *
+	 * @return a UtrSequenceCache
+	 */
+	public UtrSequenceCache getCache() {
+		return calculator.getCache();
+	}
+
+	/**
+	 * Returns the counters of the work done by the server.
+	 *
+	 * @return a UorfMetrics
+	 */
+	public UorfMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Returns the number of responses, on all connections, that are waiting to be sent, whether or not they have been worked out yet.
+	 *
+	 * @return an int
+	 */
+	public int getPendingResponses() {
+		int retval = 0;
+		for (BlockingQueue<Future<String>> pending : connections) {
+			retval += pending.size();
+		}
+		return retval;
+	}
+
+	/**
+	 * Listen for connections on a socket, and handle each connection on its own threads. This does not return unless there is an error.
+	 *
+	 * @param socket the path of the socket to create
+	 */
+	public void listen(Path socket) throws IOException {
+		Files.deleteIfExists(socket);
+		try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+			server.bind(UnixDomainSocketAddress.of(socket));
+			System.err.println("Listening on " + socket);
+			while (true) {
+				SocketChannel connection = server.accept();
+				executor.execute(() -> handle(connection));
+			}
+		}
+	}
+
+	/**
+	 * Handle one connection. This thread reads the requests and hands them to the executor, and another thread sends the responses in order. If the client stops reading the responses, the connection is closed.
+	 *
+	 * @param connection the connection
+	 */
+	private void handle(SocketChannel connection) {
+		BlockingQueue<Future<String>> pending = new ArrayBlockingQueue<Future<String>>(MAX_PENDING);
+		Semaphore working = new Semaphore(MAX_WORKING);
+		AtomicBoolean failed = new AtomicBoolean(false);
+		CompletableFuture<String> end = CompletableFuture.completedFuture(null);
+		Future<?> writer = null;
+		connections.add(pending);
+		// The responses are written straight to the channel, because a stream from Channels would hold the channel's lock while the reader waits for the next request
+		try (SocketChannel channel = connection; BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8))) {
+			writer = executor.submit(() -> {
+				StringBuilder out = new StringBuilder();
+				try {
+					Future<String> response = pending.take();
+					while (response != end) {
+						out.append(response.get()).append('\n');
+						// Send the responses when there are none ready to go with them
+						if (pending.isEmpty() || (out.length() >= WRITE_BUFFER)) {
+							send(channel, out);
+						}
+						response = pending.take();
+					}
+					send(channel, out);
+				} catch (IOException | InterruptedException | ExecutionException e) {
+					// The client has gone away, so stop the reader too
+					failed.set(true);
+					try {
+						connection.close();
+					} catch (IOException e2) {
+						// It is closed anyway
+					}
+				}
+				return null;
+			});
+			String line;
+			while ((line = in.readLine()) != null) {
+				String request = line;
+				working.acquire();
+				metrics.requestStarted("socket");
+				queue(pending, CompletableFuture.supplyAsync(() -> {
+					try {
+						String response = answer(request);
+						metrics.recordQuery(response.startsWith("ERROR"));
+						return response;
+					} finally {
+						metrics.requestFinished();
+						working.release();
+					}
+				}, executor), failed);
+			}
+			queue(pending, end, failed);
+			writer.get();
+		} catch (IOException | InterruptedException | ExecutionException e) {
+			// The client has gone away
+		} finally {
+			connections.remove(pending);
+			if (writer != null) {
+				writer.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Add a response to the queue of responses to send, waiting for space, unless the responses can no longer be sent.
+	 *
+	 * @param pending the queue of responses to send
+	 * @param response the response to add
+	 * @param failed whether the responses can no longer be sent
+	 */
+	private static void queue(BlockingQueue<Future<String>> pending, Future<String> response, AtomicBoolean failed) throws IOException, InterruptedException {
+		while (!pending.offer(response, 100, TimeUnit.MILLISECONDS)) {
+			if (failed.get()) {
+				throw new IOException("The client is not reading the responses");
+			}
+		}
+	}
+
+	/**
+	 * Send some text to a client, and empty the buffer.
+	 *
+	 * @param channel the connection to the client
+	 * @param out the text to send
+	 */
+	private static void send(SocketChannel channel, StringBuilder out) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(out.toString().getBytes(StandardCharsets.UTF_8));
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		out.setLength(0);
+	}
+
+	/**
+	 * Answer one request line.
+	 *
+	 * @param request the request line
+	 *
+	 * @return the response line
+	 */
+	String answer(String request) {
+		try {
+			String[] fields = request.trim().split("\\s+");
+			if ((fields.length < 7) || (fields.length % 2 != 1)) {
+				return "ERROR\tExpected chr, position, reference allele, alternate allele, strand, and start and end positions of the 5-prime UTR";
+			}
+			String chr = fields[0];
+			int pos = Integer.parseInt(fields[1]);
+			Uorf.UorfResult result = calculator.calculateUorfEffect(getUtr(fields), chr, pos, fields[2], fields[3]);
+			Uorf uorf = result.getUorf();
+			StringBuilder retval = new StringBuilder();
+			retval.append("".equals(result.getEffect()) ? "." : result.getEffect()).append('\t');
+			retval.append(result.isLoss() ? '1' : '0').append('\t');
+			if (uorf == null) {
+				retval.append(".\t.\t.");
+			} else {
+				retval.append(uorf.getStrengthString()).append('\t').append(uorf.getDistance()).append('\t').append(uorf.getStopDistance());
+			}
+			retval.append('\t').append(result.getRefUorfs() == null ? "." : result.getRefUorfs().toString());
+			retval.append('\t').append(result.getAltUorfs() == null ? "." : result.getAltUorfs().toString());
+			return retval.toString();
+		} catch (RuntimeException e) {
+			return "ERROR\t" + (e.getMessage() == null ? e.toString() : e.getMessage().replace('\t', ' ').replace('\n', ' '));
+		}
+	}
+
+	/**
+	 * Returns the 5-prime UTR described by a request, reusing the same object for requests that describe the same UTR, so that its sequence is found in the cache.
+	 *
+	 * @param fields the fields of the request
+	 *
+	 * @return a FivePrimeUtr
+	 */
+	private Uorf.FivePrimeUtr getUtr(String[] fields) {
+		int[] coordinates = new int[fields.length - 5];
+		for (int i = 0; i < coordinates.length; i++) {
+			coordinates[i] = Integer.parseInt(fields[i + 5]);
+		}
+		return utrs.get(fields[0], Integer.parseInt(fields[4]) > 0, coordinates);
+	}
+}
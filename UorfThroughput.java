@@ -0,0 +1,255 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Measures the speed of the whole annotation of a VCF file, as done by UorfBatch, for comparing changes to the code on the same data. The data can be made by SyntheticData.
+ * <p>
+ * This makes two passes over the VCF file. The first annotates it with several threads exactly as UorfBatch does, and reports the number of variants per second and the peak heap use.
+ * The second annotates it again in one thread, one stage at a time, and reports the time spent in each stage. The first pass also warms up the JIT compiler for the second.
+ */
+public class UorfThroughput
+{
+	/**
+	 * Run the benchmark, according to the command-line arguments.
+	 * <ul><li>Optionally, "-t" followed by the number of annotation threads to use in the first pass. The default is the number of processors.</li>
+	 *     <li>Optionally, "-c" followed by the size of the UTR sequence cache in megabytes. The default is 256.</li>
+	 *     <li>The reference genome, in any format that ReferenceProvider.open understands.</li>
+	 *     <li>A file describing the transcripts, in any format that TranscriptLoader understands.</li>
+	 *     <li>The input VCF file.</li>
+	 *     <li>Optionally, an output VCF file to write the annotated records to, in the second pass. Otherwise they are thrown away.</li>
+	 * </ul>
+	 * For instance:<br>
+	 * java SyntheticData synthetic 4 10000000 20000 1000000<br>
+	 * java UorfThroughput synthetic.fa synthetic.gtf synthetic.vcf
+	 *
+	 * @param args the command-line arguments
+	 */
+	public static void main(String[] args) throws Exception {
+		int threads = Runtime.getRuntime().availableProcessors();
+		long cacheBytes = UtrSequenceCache.DEFAULT_MAX_BYTES;
+		int argStart = 0;
+		while ((args.length > argStart + 1) && args[argStart].startsWith("-") && (args[argStart].length() > 1)) {
+			if ("-t".equals(args[argStart])) {
+				threads = Integer.parseInt(args[argStart + 1]);
+			} else if ("-c".equals(args[argStart])) {
+				cacheBytes = Long.parseLong(args[argStart + 1]) * 1024 * 1024;
+			} else {
+				break;
+			}
+			argStart += 2;
+		}
+		if ((args.length - argStart != 3) && (args.length - argStart != 4)) {
+			System.err.println("Usage: java UorfThroughput [-t threads] [-c cache_megabytes] <genome> <annotation> <input.vcf> [output.vcf]");
+			System.exit(1);
+		}
+		long start = System.nanoTime();
+		List<Uorf.FivePrimeUtr> utrs = TranscriptLoader.load(new File(args[argStart + 1]));
+		FivePrimeUtrIndex utrIndex = new FivePrimeUtrIndex(utrs);
+		System.out.println("Loaded " + utrs.size() + " transcripts in " + millis(System.nanoTime() - start) + " ms");
+		try (ReferenceProvider reference = ReferenceProvider.open(new File(args[argStart]))) {
+			// Pass 1: the whole pipeline, with several threads
+			UorfBatch batch = new UorfBatch(utrIndex, new UtrSequenceCache(cacheBytes));
+			resetPeakHeap();
+			long gcBefore = gcMillis();
+			start = System.nanoTime();
+			try (BufferedReader in = TranscriptLoader.openText(args[argStart + 2])) {
+				batch.annotate(reference, threads, in, Writer.nullWriter());
+			}
+			long elapsed = System.nanoTime() - start;
+			System.out.println("Annotated " + batch.getRecordCount() + " variants, " + batch.getAnnotatedCount() + " with uORF effects, in " + millis(elapsed) + " ms using " + threads + " threads");
+			System.out.println("Throughput: " + perSecond(batch.getRecordCount(), elapsed) + " variants/s");
+			System.out.println("Peak heap: " + (peakHeap() / (1024 * 1024)) + " MB, garbage collection: " + (gcMillis() - gcBefore) + " ms");
+			System.out.println(batch.getCache());
+			if (UorfTimings.ENABLED) {
+				System.out.println(UorfTimings.report());
+				UorfTimings.reset();
+			}
+			// Pass 2: each stage separately, with one thread
+			resetPeakHeap();
+			try (BufferedReader in = TranscriptLoader.openText(args[argStart + 2]); Writer out = (args.length - argStart == 4 ? UorfBatch.createVcf(args[argStart + 3]) : Writer.nullWriter())) {
+				new Stages(reference, utrIndex, cacheBytes).run(in, out);
+			}
+			System.out.println("Peak heap: " + (peakHeap() / (1024 * 1024)) + " MB");
+		}
+	}
+
+	private static long millis(long nanos) {
+		return nanos / 1000000;
+	}
+
+	private static long perSecond(long count, long nanos) {
+		return (nanos == 0 ? 0 : count * 1000000000L / nanos);
+	}
+
+	private static void resetPeakHeap() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	/**
+	 * Returns the sum of the peak use of each heap memory pool since the peaks were last reset. The pools do not all reach their peak at the same time, so this is an upper bound.
+	 *
+	 * @return a number of bytes
+	 */
+	private static long peakHeap() {
+		long retval = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				retval += pool.getPeakUsage().getUsed();
+			}
+		}
+		return retval;
+	}
+
+	private static long gcMillis() {
+		long retval = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			retval += Math.max(0, gc.getCollectionTime());
+		}
+		return retval;
+	}
+
+	/**
+	 * Annotates a VCF file one stage at a time, timing each stage.
+	 * The stages are reading and parsing each record and finding the transcripts that it is in, reading the UTR sequences from the reference genome, splicing them, finding the uORFs in the reference sequences, calculating the effect of each variant, and writing the annotated records.
+	 * The sequence of each UTR is read, spliced and searched the first time a variant falls in it, as the UTR sequence cache does in a real run.
+	 */
+	private static class Stages
+	{
+		private TimedReference reference;
+		private FivePrimeUtrIndex utrIndex;
+		private UorfBatch batch;
+		private UtrSequenceCache cache;
+		private UorfCalculator calculator;
+		private Set<Uorf.FivePrimeUtr> seen = Collections.newSetFromMap(new IdentityHashMap<Uorf.FivePrimeUtr, Boolean>());
+		private long input, splice, scan, effect, output;
+		private long records, calculations;
+
+		private Stages(ReferenceProvider reference, FivePrimeUtrIndex utrIndex, long cacheBytes) {
+			this.reference = new TimedReference(reference);
+			this.utrIndex = utrIndex;
+			this.cache = new UtrSequenceCache(cacheBytes);
+			this.batch = new UorfBatch(utrIndex, cache);
+			this.calculator = UorfCalculator.builder().reference(reference).cache(cache).summaryOnly(true).build();
+		}
+
+		private void run(BufferedReader in, Writer out) throws IOException {
+			long start = System.nanoTime();
+			long time = start;
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.isEmpty()) {
+					continue;
+				} else if (line.startsWith("#")) {
+					if (line.startsWith("#CHROM")) {
+						for (String header : UorfBatch.INFO_HEADERS) {
+							out.write(header);
+							out.write('\n');
+						}
+					}
+					out.write(line);
+					out.write('\n');
+					time = System.nanoTime();
+					continue;
+				}
+				records++;
+				String[] fields = line.split("\t", 6);
+				String chr = fields[0];
+				int pos = Integer.parseInt(fields[1]);
+				String ref = fields[3];
+				List<Uorf.FivePrimeUtr> utrs = utrIndex.getOverlapping(chr, pos, pos + ref.length() - 1);
+				long now = System.nanoTime();
+				input += now - time;
+				time = now;
+				for (Uorf.FivePrimeUtr utr : utrs) {
+					if (seen.add(utr)) {
+						long fetched = reference.nanos;
+						int[] exonOffsets = new int[utr.getExons().size()];
+						byte[] bases = UtrSequenceCache.spliceBases(reference, utr, exonOffsets);
+						now = System.nanoTime();
+						splice += now - time - (reference.nanos - fetched);
+						time = now;
+						new UtrSequenceCache.SplicedUtr(bases, exonOffsets);
+						now = System.nanoTime();
+						scan += now - time;
+						// Put the UTR into the cache for the effect stage, without timing it
+						cache.get(reference.reference, utr);
+						time = System.nanoTime();
+					}
+					for (String alt : fields[4].split(",")) {
+						try {
+							calculator.calculateUorfEffect(utr, chr, pos, ref, alt);
+						} catch (RuntimeException e) {
+							// Reported by UorfBatch in the first pass
+						}
+						calculations++;
+					}
+					now = System.nanoTime();
+					effect += now - time;
+					time = now;
+				}
+				// Annotate the record again for writing, without timing it, as the effects were timed above
+				String annotated = (utrs.isEmpty() ? line : batch.annotateRecord(reference.reference, line));
+				time = System.nanoTime();
+				out.write(annotated);
+				out.write('\n');
+				now = System.nanoTime();
+				output += now - time;
+				time = now;
+			}
+			long total = System.nanoTime() - start;
+			long fetch = reference.nanos;
+			long timed = input + fetch + splice + scan + effect + output;
+			System.out.println("Stages, one thread: " + records + " variants, " + calculations + " effect calculations, in " + millis(timed) + " ms (" + perSecond(records, timed) + " variants/s)");
+			printStage("Input and transcript lookup", input, timed);
+			printStage("Reference fetch (" + reference.bytes + " bases)", fetch, timed);
+			printStage("Splice", splice, timed);
+			printStage("Reference uORF scan", scan, timed);
+			printStage("Effect", effect, timed);
+			printStage("Output", output, timed);
+			System.out.println("  Untimed work, such as filling the cache: " + millis(total - timed) + " ms");
+		}
+
+		private static void printStage(String name, long nanos, long total) {
+			System.out.println(String.format("  %-40s %8d ms %5.1f%%", name, millis(nanos), (total == 0 ? 0.0 : 100.0 * nanos / total)));
+		}
+	}
+
+	/**
+	 * A ReferenceProvider that counts the time spent and the number of bases read.
+	 */
+	private static class TimedReference implements ReferenceProvider
+	{
+		private ReferenceProvider reference;
+		private long nanos, bytes;
+
+		private TimedReference(ReferenceProvider reference) {
+			this.reference = reference;
+		}
+
+		public byte[] getBases(String chr, int start, int end) {
+			long time = System.nanoTime();
+			byte[] retval = reference.getBases(chr, start, end);
+			nanos += System.nanoTime() - time;
+			bytes += retval.length;
+			return retval;
+		}
+
+		public void close() throws IOException {
+			reference.close();
+		}
+	}
+}
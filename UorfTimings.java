@@ -0,0 +1,139 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Optional counters of the time spent in each stage of calculating uORF effects, totalled over all threads.
+ * <p>
+ * The timings are only collected if Java is started with "-Duorf.timings=true". Otherwise ENABLED is false, and as it is a constant the timing code is removed by the JIT compiler, so it costs nothing.
+ * UorfBatch prints the totals at the end of a run when they are enabled.
+ */
+public class UorfTimings
+{
+	/**
+	 * True if timings are being collected, set by the "uorf.timings" system property when the class is loaded.
+	 */
+	public static final boolean ENABLED = Boolean.getBoolean("uorf.timings");
+
+	/**
+	 * The stages that are timed.
+	 */
+	public enum Stage
+	{
+		/** The whole of calculateUorfEffect, which includes the other stages */
+		CALCULATE("calculateUorfEffect"),
+		/** Reading the bases of UTR exons from the reference genome, on a cache miss */
+		REFERENCE_FETCH("Reference fetch"),
+		/** Splicing the UTR exons together, on a cache miss, and applying the variant to the spliced UTR */
+		SPLICE("Splice"),
+		/** Reverse complementing UTR exons and alleles on the reverse strand */
+		REVERSE("Reverse complement"),
+		/** Finding the uORFs in the reference UTR, on a cache miss */
+		REFERENCE_SCAN("Reference uORF scan"),
+		/** Finding the uORFs in the alternate UTR */
+		ALT_SCAN("Alternate uORF scan"),
+		/** Sorting the alternate uORFs, or picking out the most "damaging" one for a summary-only UorfCalculator */
+		SORT("Sort");
+
+		private String description;
+
+		private Stage(String description) {
+			this.description = description;
+		}
+
+		/**
+		 * Returns a description of the stage.
+		 *
+		 * @return a String
+		 */
+		public String getDescription() {
+			return description;
+		}
+	}
+
+	private static final LongAdder[] NANOS = new LongAdder[Stage.values().length];
+	private static final LongAdder[] COUNTS = new LongAdder[Stage.values().length];
+
+	static {
+		for (int i = 0; i < NANOS.length; i++) {
+			NANOS[i] = new LongAdder();
+			COUNTS[i] = new LongAdder();
+		}
+	}
+
+	private UorfTimings() {
+	}
+
+	/**
+	 * Add the time since a start time to a stage. This should only be called if ENABLED is true, like this:<br>
+	 * long time = (UorfTimings.ENABLED ? System.nanoTime() : 0);<br>
+	 * ...<br>
+	 * if (UorfTimings.ENABLED) { time = UorfTimings.record(UorfTimings.Stage.SPLICE, time); }
+	 *
+	 * @param stage the stage
+	 * @param start the System.nanoTime() when the stage started
+	 *
+	 * @return the current System.nanoTime(), to use as the start of the next stage
+	 */
+	static long record(Stage stage, long start) {
+		long now = System.nanoTime();
+		add(stage, now - start);
+		return now;
+	}
+
+	/**
+	 * Add a time to a stage, and count it as one more time that the stage has been run. This should only be called if ENABLED is true.
+	 *
+	 * @param stage the stage
+	 * @param nanos the time spent in the stage, in nanoseconds
+	 */
+	static void add(Stage stage, long nanos) {
+		NANOS[stage.ordinal()].add(nanos);
+		COUNTS[stage.ordinal()].increment();
+	}
+
+	/**
+	 * Returns the total time spent in a stage so far, over all threads.
+	 *
+	 * @param stage the stage
+	 *
+	 * @return a number of nanoseconds
+	 */
+	public static long getNanos(Stage stage) {
+		return NANOS[stage.ordinal()].sum();
+	}
+
+	/**
+	 * Returns the number of times that a stage has been timed so far.
+	 *
+	 * @param stage the stage
+	 *
+	 * @return a long
+	 */
+	public static long getCount(Stage stage) {
+		return COUNTS[stage.ordinal()].sum();
+	}
+
+	/**
+	 * Set all the totals back to zero.
+	 */
+	public static void reset() {
+		for (int i = 0; i < NANOS.length; i++) {
+			NANOS[i].reset();
+			COUNTS[i].reset();
+		}
+	}
+
+	/**
+	 * Returns a table of the total time, number of times, and average time of each stage.
+	 *
+	 * @return a String
+	 */
+	public static String report() {
+		StringBuilder retval = new StringBuilder("Stage timings, totalled over all threads:");
+		for (Stage stage : Stage.values()) {
+			long nanos = getNanos(stage);
+			long count = getCount(stage);
+			retval.append(String.format("%n  %-24s %10d ms %12d times %10.2f us each", stage.getDescription(), nanos / 1000000, count, (count == 0 ? 0.0 : nanos / 1000.0 / count)));
+		}
+		return retval.toString();
+	}
+}
@@ -0,0 +1,78 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers the 5-prime UTRs given in queries to a server, so that queries that describe the same UTR get the same FivePrimeUtr object. The UtrSequenceCache is keyed on the UTR object, so without this every such query would add a cache entry that could never be used again, pushing out the entries of the loaded transcripts. The least recently used UTRs are forgotten once there are too many. This can be shared between threads.
+ */
+public class UtrInterner
+{
+	/**
+	 * The default number of different 5-prime UTRs remembered.
+	 */
+	public static final int DEFAULT_MAX_UTRS = 100000;
+
+	private int maxUtrs;
+	private Map<String, Uorf.FivePrimeUtr> utrs = new LinkedHashMap<String, Uorf.FivePrimeUtr>(1024, 0.75f, true);
+
+	/**
+	 * Creates an interner that remembers up to DEFAULT_MAX_UTRS UTRs.
+	 */
+	public UtrInterner() {
+		this(DEFAULT_MAX_UTRS);
+	}
+
+	/**
+	 * Creates an interner.
+	 *
+	 * @param maxUtrs the number of different UTRs to remember
+	 */
+	public UtrInterner(int maxUtrs) {
+		this.maxUtrs = maxUtrs;
+	}
+
+	/**
+	 * Returns the 5-prime UTR with the given exons, reusing the object returned for an earlier call with the same arguments if it is still remembered.
+	 *
+	 * @param chr the chromosome
+	 * @param forwardStrand whether the gene is on the forward strand
+	 * @param coordinates the start and end positions of each exon, in the same order as the arguments to Uorf
+	 *
+	 * @return a FivePrimeUtr
+	 */
+	public Uorf.FivePrimeUtr get(String chr, boolean forwardStrand, int[] coordinates) {
+		if ((coordinates.length == 0) || (coordinates.length % 2 != 0)) {
+			throw new IllegalArgumentException("A 5-prime UTR needs a start and end position for each exon");
+		}
+		StringBuilder key = new StringBuilder(chr).append('\t').append(forwardStrand ? '+' : '-');
+		for (int coordinate : coordinates) {
+			key.append('\t').append(coordinate);
+		}
+		String keyString = key.toString();
+		synchronized (utrs) {
+			Uorf.FivePrimeUtr retval = utrs.get(keyString);
+			if (retval != null) {
+				return retval;
+			}
+		}
+		List<Uorf.FivePrimeUtrExon> exons = new ArrayList<Uorf.FivePrimeUtrExon>();
+		for (int i = 0; i < coordinates.length; i += 2) {
+			exons.add(new Uorf.FivePrimeUtrExon(chr, coordinates[i], coordinates[i + 1]));
+		}
+		Uorf.FivePrimeUtr retval = new Uorf.FivePrimeUtr(forwardStrand, exons);
+		synchronized (utrs) {
+			Uorf.FivePrimeUtr existing = utrs.putIfAbsent(keyString, retval);
+			if (existing != null) {
+				return existing;
+			}
+			Iterator<Uorf.FivePrimeUtr> iter = utrs.values().iterator();
+			while (utrs.size() > maxUtrs) {
+				iter.next();
+				iter.remove();
+			}
+		}
+		return retval;
+	}
+}
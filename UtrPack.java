@@ -0,0 +1,252 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A pre-built binary file holding the 5-prime UTR of every transcript, with its spliced bases and the uORFs in them, so that annotation can start without reading the annotation file or the reference genome.
+ * <p>
+ * The file is mapped into memory when it is opened. Only the names and exons of the transcripts are read at first, and the bases and uORFs of a transcript are read from the mapped file the first time a variant falls in it. A pack is made with:
+ * <p>
+ * java UtrPack &lt;genome&gt; &lt;annotation&gt; &lt;output.utrpack&gt;
+ * <p>
+ * All numbers in the file are big-endian. The file is laid out as:
+ * <ul><li>The magic bytes "UORFPACK", and the version number.</li>
+ *     <li>The number of chromosomes, and their names.</li>
+ *     <li>A record for each transcript, holding its name, strand, exons (as chromosome number, start and end), spliced bases, and for each of the three coding frames the start and stop positions, strength and type of each uORF.</li>
+ *     <li>An index of the position of each record in the file, followed by the number of records and the position of the index.</li>
+ * </ul>
+ */
+public class UtrPack
+{
+	private static final byte[] MAGIC = "UORFPACK".getBytes(StandardCharsets.ISO_8859_1);
+	private static final int VERSION = 1;
+
+	private MappedFile file;
+	private List<Uorf.FivePrimeUtr> utrs;
+
+	/**
+	 * Make a UTR pack from an annotation file and a reference genome.
+	 * <ul><li>The reference genome, in any format that ReferenceProvider.open understands.</li>
+	 *     <li>A file describing the transcripts, in any format that TranscriptLoader understands.</li>
+	 *     <li>The UTR pack file to write.</li>
+	 * </ul>
+	 *
+	 * @param args the command-line arguments
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length != 3) {
+			System.err.println("Usage: java UtrPack <genome> <annotation> <output.utrpack>");
+			System.exit(1);
+		}
+		long start = System.currentTimeMillis();
+		List<Uorf.FivePrimeUtr> utrs = TranscriptLoader.load(new File(args[1]));
+		int written;
+		try (ReferenceProvider reference = ReferenceProvider.open(new File(args[0]))) {
+			written = write(reference, utrs, new File(args[2]));
+		}
+		System.err.println("Packed " + written + " of " + utrs.size() + " transcripts in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * Write a UTR pack. Transcripts whose sequence cannot be read from the reference genome are left out, with a warning.
+	 *
+	 * @param reference the reference genome
+	 * @param utrs the 5-prime UTRs to write
+	 * @param output the file to write to
+	 *
+	 * @return the number of transcripts written
+	 */
+	public static int write(ReferenceProvider reference, List<Uorf.FivePrimeUtr> utrs, File output) throws IOException {
+		Map<String, Integer> contigs = new HashMap<String, Integer>();
+		List<String> contigNames = new ArrayList<String>();
+		for (Uorf.FivePrimeUtr utr : utrs) {
+			for (Uorf.FivePrimeUtrExon exon : utr.getExons()) {
+				if (!contigs.containsKey(exon.getChr())) {
+					contigs.put(exon.getChr(), contigNames.size());
+					contigNames.add(exon.getChr());
+				}
+			}
+		}
+		// Each record is built in memory first, so that its position in the file is known
+		ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+		DataOutputStream record = new DataOutputStream(recordBytes);
+		List<Long> offsets = new ArrayList<Long>();
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output), 1 << 20))) {
+			out.write(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(contigNames.size());
+			long position = MAGIC.length + 8;
+			for (String contig : contigNames) {
+				byte[] name = contig.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(name.length);
+				out.write(name);
+				position += 4 + name.length;
+			}
+			for (Uorf.FivePrimeUtr utr : utrs) {
+				UtrSequenceCache.SplicedUtr spliced;
+				try {
+					spliced = UtrSequenceCache.splice(reference, utr);
+				} catch (RuntimeException e) {
+					System.err.println("Could not read the sequence of " + utr.getName() + ": " + e.getMessage());
+					continue;
+				}
+				recordBytes.reset();
+				byte[] name = (utr.getName() == null ? new byte[0] : utr.getName().getBytes(StandardCharsets.UTF_8));
+				record.writeInt(name.length);
+				record.write(name);
+				record.writeBoolean(utr.getForwardStrand());
+				record.writeInt(utr.getExons().size());
+				for (Uorf.FivePrimeUtrExon exon : utr.getExons()) {
+					record.writeInt(contigs.get(exon.getChr()));
+					record.writeInt(exon.getStart());
+					record.writeInt(exon.getEnd());
+				}
+				byte[] bases = spliced.getBases();
+				record.writeInt(bases.length);
+				record.write(bases);
+				for (UorfScanner.Frame frame : spliced.getFrames()) {
+					record.writeInt(frame.getCount());
+					for (int i = 0; i < frame.getCount(); i++) {
+						record.writeInt(frame.getStart(i));
+						record.writeInt(frame.getStop(i));
+						record.writeByte(frame.getUorf(i).getStrength());
+						record.writeByte(frame.getUorf(i).getType().ordinal());
+					}
+				}
+				record.flush();
+				offsets.add(position);
+				recordBytes.writeTo(out);
+				position += recordBytes.size();
+			}
+			for (long offset : offsets) {
+				out.writeLong(offset);
+			}
+			out.writeInt(offsets.size());
+			out.writeLong(position);
+		}
+		return offsets.size();
+	}
+
+	/**
+	 * Opens a UTR pack, and reads the names and exons of all its transcripts.
+	 *
+	 * @param pack the UTR pack file
+	 */
+	public UtrPack(File pack) throws IOException {
+		file = new MappedFile(pack);
+		if (file.size() < MAGIC.length + 20) {
+			throw new IOException(pack + " is not a UTR pack");
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (file.get(i) != MAGIC[i]) {
+				throw new IOException(pack + " is not a UTR pack");
+			}
+		}
+		int version = file.getInt(MAGIC.length);
+		if (version != VERSION) {
+			throw new IOException(pack + " has unknown UTR pack version " + version);
+		}
+		String[] contigs = new String[file.getInt(MAGIC.length + 4)];
+		long position = MAGIC.length + 8;
+		for (int i = 0; i < contigs.length; i++) {
+			byte[] name = new byte[file.getInt(position)];
+			file.get(position + 4, name);
+			contigs[i] = new String(name, StandardCharsets.UTF_8);
+			position += 4 + name.length;
+		}
+		int count = file.getInt(file.size() - 12);
+		long index = file.getLong(file.size() - 8);
+		List<Uorf.FivePrimeUtr> list = new ArrayList<Uorf.FivePrimeUtr>(count);
+		for (int i = 0; i < count; i++) {
+			position = file.getLong(index + 8L * i);
+			byte[] name = new byte[file.getInt(position)];
+			file.get(position + 4, name);
+			position += 4 + name.length;
+			boolean forwardStrand = (file.get(position) != 0);
+			int exonCount = file.getInt(position + 1);
+			position += 5;
+			List<Uorf.FivePrimeUtrExon> exons = new ArrayList<Uorf.FivePrimeUtrExon>(exonCount);
+			for (int o = 0; o < exonCount; o++) {
+				exons.add(new Uorf.FivePrimeUtrExon(contigs[file.getInt(position)], file.getInt(position + 4), file.getInt(position + 8)));
+				position += 12;
+			}
+			list.add(new PackedUtr(name.length == 0 ? null : new String(name, StandardCharsets.UTF_8), forwardStrand, exons, this, position));
+		}
+		utrs = Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * Returns the 5-prime UTRs in the pack, in the order that they were written.
+	 *
+	 * @return an unmodifiable List of FivePrimeUtr objects
+	 */
+	public List<Uorf.FivePrimeUtr> getUtrs() {
+		return utrs;
+	}
+
+	/**
+	 * Close the UTR pack. The mapped memory is released when it is garbage collected, and the UTRs should not be used afterwards.
+	 */
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * A 5-prime UTR loaded from a UtrPack, which knows where its spliced bases and uORFs are in the pack.
+	 */
+	public static class PackedUtr extends Uorf.FivePrimeUtr
+	{
+		private UtrPack pack;
+		private long basesPosition;
+
+		private PackedUtr(String name, boolean forwardStrand, List<Uorf.FivePrimeUtrExon> exons, UtrPack pack, long basesPosition) {
+			super(name, forwardStrand, exons);
+			this.pack = pack;
+			this.basesPosition = basesPosition;
+		}
+
+		/**
+		 * Read the spliced bases and uORFs of this UTR from the pack.
+		 *
+		 * @return a SplicedUtr
+		 */
+		UtrSequenceCache.SplicedUtr readSpliced() {
+			MappedFile file = pack.file;
+			List<Uorf.FivePrimeUtrExon> exons = getExons();
+			int[] exonOffsets = new int[exons.size()];
+			int length = 0;
+			for (int i = 0; i < exons.size(); i++) {
+				exonOffsets[i] = length;
+				length += exons.get(i).getEnd() - exons.get(i).getStart() + 1;
+			}
+			byte[] bases = new byte[file.getInt(basesPosition)];
+			file.get(basesPosition + 4, bases);
+			long position = basesPosition + 4 + bases.length;
+			Uorf.UorfType[] types = Uorf.UorfType.values();
+			UorfScanner.Frame[] frames = new UorfScanner.Frame[3];
+			for (int k = 0; k < 3; k++) {
+				frames[k] = new UorfScanner.Frame((bases.length + k) % 3, bases.length);
+				int count = file.getInt(position);
+				position += 4;
+				for (int i = 0; i < count; i++) {
+					int start = file.getInt(position);
+					int stop = file.getInt(position + 4);
+					int strength = file.get(position + 8);
+					Uorf.UorfType type = types[file.get(position + 9)];
+					position += 10;
+					frames[k].add(start, stop, strength, new Uorf(bases.length - start, (stop == -1 ? 0 : bases.length + 3 - stop), strength, type));
+				}
+			}
+			return new UtrSequenceCache.SplicedUtr(bases, exonOffsets, frames);
+		}
+	}
+}
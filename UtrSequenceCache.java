@@ -0,0 +1,376 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A size-bounded cache of the spliced reference sequences of 5-prime UTRs, and the uORFs in them, so that the reference genome only needs to be read and searched once for each transcript, rather than once for each variant.
+ * <p>
+ * Entries are keyed by the identity of the FivePrimeUtr object, and the least recently used entries are removed when the total size of the cached sequences goes over the limit. The size of an entry is estimated from the number of bases and exons that it holds. The cache can be shared between threads, and a cache should only ever be used with one reference genome.
+ */
+public class UtrSequenceCache
+{
+	/**
+	 * The default size of the cache, in bytes.
+	 */
+	public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+	/**
+	 * The estimated number of bytes used by an entry in addition to its bases, exon offsets and uORFs.
+	 */
+	public static final int ENTRY_OVERHEAD = 256;
+
+	/**
+	 * The estimated number of bytes used by each reference uORF in an entry.
+	 */
+	public static final int UORF_OVERHEAD = 40;
+
+	private long maxBytes;
+	private long bytes = 0;
+	private LinkedHashMap<Uorf.FivePrimeUtr, SplicedUtr> entries = new LinkedHashMap<Uorf.FivePrimeUtr, SplicedUtr>(1024, 0.75f, true);
+	private LongAdder hits = new LongAdder();
+	private LongAdder misses = new LongAdder();
+	private LongAdder evictions = new LongAdder();
+
+	/**
+	 * Creates a new empty cache.
+	 *
+	 * @param maxBytes the maximum estimated size of all the entries in the cache, in bytes
+	 */
+	public UtrSequenceCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Returns the spliced reference sequence of a 5-prime UTR, reading it from the reference genome if it is not in the cache.
+	 * If two threads ask for the same UTR at the same time, then both may read it from the reference genome.
+	 *
+	 * @param reference the reference genome to read from
+	 * @param utr the 5-prime UTR
+	 *
+	 * @return a SplicedUtr
+	 */
+	public SplicedUtr get(ReferenceProvider reference, Uorf.FivePrimeUtr utr) {
+		SplicedUtr retval = lookup(utr);
+		return (retval != null ? retval : load(reference, utr));
+	}
+
+	/**
+	 * Returns the spliced reference sequence of a 5-prime UTR if it is in the cache, counting a hit if it is.
+	 *
+	 * @param utr the 5-prime UTR
+	 *
+	 * @return a SplicedUtr, or null if it is not in the cache
+	 */
+	SplicedUtr lookup(Uorf.FivePrimeUtr utr) {
+		SplicedUtr retval;
+		synchronized (this) {
+			retval = entries.get(utr);
+		}
+		if (retval != null) {
+			hits.increment();
+		}
+		return retval;
+	}
+
+	/**
+	 * Read the spliced reference sequence of a 5-prime UTR from the reference genome and put it in the cache, counting a miss.
+	 *
+	 * @param reference the reference genome to read from
+	 * @param utr the 5-prime UTR
+	 *
+	 * @return a SplicedUtr
+	 */
+	SplicedUtr load(ReferenceProvider reference, Uorf.FivePrimeUtr utr) {
+		misses.increment();
+		// Read the reference without holding the lock, so that other threads are not held up
+		SplicedUtr retval = splice(reference, utr);
+		synchronized (this) {
+			SplicedUtr old = entries.put(utr, retval);
+			if (old != null) {
+				bytes -= old.getWeight();
+			}
+			bytes += retval.getWeight();
+			evict();
+		}
+		return retval;
+	}
+
+	/**
+	 * Remove the least recently used entries until the cache is within its size limit. The caller must hold the lock.
+	 */
+	private void evict() {
+		Iterator<SplicedUtr> iter = entries.values().iterator();
+		while ((bytes > maxBytes) && iter.hasNext()) {
+			bytes -= iter.next().getWeight();
+			iter.remove();
+			evictions.increment();
+		}
+	}
+
+	/**
+	 * Change the size limit of the cache, removing the least recently used entries if it is now too big.
+	 *
+	 * @param maxBytes the maximum estimated size of all the entries in the cache, in bytes
+	 */
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		evict();
+	}
+
+	/**
+	 * Remove all the entries from the cache. The hit, miss and eviction counts are not changed.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * Returns the number of times that a UTR was found in the cache.
+	 *
+	 * @return a long
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Returns the number of times that a UTR was not found in the cache, and had to be read from the reference genome.
+	 *
+	 * @return a long
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Returns the number of entries that have been removed from the cache to make space for others.
+	 *
+	 * @return a long
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Returns the number of UTRs in the cache.
+	 *
+	 * @return an int
+	 */
+	public synchronized int getEntryCount() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the estimated size of all the entries in the cache, in bytes.
+	 *
+	 * @return a long
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Returns the maximum estimated size of all the entries in the cache, in bytes.
+	 *
+	 * @return a long
+	 */
+	public synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Returns a text summary of the cache statistics.
+	 *
+	 * @return a String
+	 */
+	public String toString() {
+		return "UTR sequence cache: " + getEntryCount() + " entries, " + getBytes() + " bytes, " + getHits() + " hits, " + getMisses() + " misses, " + getEvictions() + " evictions";
+	}
+
+	/**
+	 * Read the sequence of a 5-prime UTR from the reference genome, and splice the exons together. The bases are upper-cased, and reverse complemented if the gene is on the reverse strand, so that the sequence reads towards the start of the gene.
+	 * If the UTR was loaded from a UtrPack, then the spliced sequence and its uORFs are read from the pack instead, and the reference genome is not used.
+	 *
+	 * @param reference the reference genome to read from, which may be null if the UTR was loaded from a UtrPack
+	 * @param utr the 5-prime UTR
+	 *
+	 * @return a SplicedUtr
+	 */
+	public static SplicedUtr splice(ReferenceProvider reference, Uorf.FivePrimeUtr utr) {
+		if (utr instanceof UtrPack.PackedUtr) {
+			return ((UtrPack.PackedUtr) utr).readSpliced();
+		}
+		int[] exonOffsets = new int[utr.getExons().size()];
+		byte[] bases = spliceBases(reference, utr, exonOffsets);
+		return new SplicedUtr(bases, exonOffsets);
+	}
+
+	/**
+	 * Read the sequence of a 5-prime UTR from the reference genome, and splice the exons together, without looking for uORFs in it.
+	 *
+	 * @param reference the reference genome to read from
+	 * @param utr the 5-prime UTR
+	 * @param exonOffsets an array with one entry for each exon, which is filled in with the position in the spliced bases where each exon starts
+	 *
+	 * @return the spliced bases, upper-case and reading towards the start of the gene
+	 */
+	static byte[] spliceBases(ReferenceProvider reference, Uorf.FivePrimeUtr utr, int[] exonOffsets) {
+		List<Uorf.FivePrimeUtrExon> exons = utr.getExons();
+		int length = 0;
+		for (int i = 0; i < exons.size(); i++) {
+			exonOffsets[i] = length;
+			length += exons.get(i).getEnd() - exons.get(i).getStart() + 1;
+		}
+		byte[] bases = new byte[length];
+		long start = (UorfTimings.ENABLED ? System.nanoTime() : 0);
+		long fetchNanos = 0, reverseNanos = 0;
+		for (int i = 0; i < exons.size(); i++) {
+			Uorf.FivePrimeUtrExon exon = exons.get(i);
+			long time = (UorfTimings.ENABLED ? System.nanoTime() : 0);
+			byte[] exonBases = reference.getBases(exon.getChr(), exon.getStart(), exon.getEnd());
+			if (UorfTimings.ENABLED) {
+				fetchNanos += System.nanoTime() - time;
+			}
+			if (utr.getForwardStrand()) {
+				for (int o = 0; o < exonBases.length; o++) {
+					byte b = exonBases[o];
+					bases[exonOffsets[i] + o] = ((b >= 'a') && (b <= 'z') ? (byte) (b - 32) : b);
+				}
+			} else {
+				// Put the exon where its reverse complement belongs once the whole UTR is reverse complemented
+				System.arraycopy(exonBases, 0, bases, length - exonOffsets[i] - exonBases.length, exonBases.length);
+			}
+		}
+		if (!utr.getForwardStrand()) {
+			long time = (UorfTimings.ENABLED ? System.nanoTime() : 0);
+			// Reverse complementing the whole UTR at once also upper-cases it, so the reverse strand does no more work than the forward strand
+			Uorf.reverse(bases, 0, length);
+			if (UorfTimings.ENABLED) {
+				reverseNanos = System.nanoTime() - time;
+			}
+		}
+		if (UorfTimings.ENABLED) {
+			UorfTimings.add(UorfTimings.Stage.REFERENCE_FETCH, fetchNanos);
+			if (!utr.getForwardStrand()) {
+				UorfTimings.add(UorfTimings.Stage.REVERSE, reverseNanos);
+			}
+			UorfTimings.add(UorfTimings.Stage.SPLICE, System.nanoTime() - start - fetchNanos - reverseNanos);
+		}
+		return bases;
+	}
+
+	/**
+	 * The reference sequence of a 5-prime UTR, with its exons spliced together, reading towards the start of the gene.
+	 * This also holds the uORFs found in the reference sequence and where they are, as they only depend on the transcript and not on the variant.
+	 */
+	public static class SplicedUtr
+	{
+		private byte[] bases;
+		private int[] exonOffsets;
+		private UorfScanner.Frame[] frames;
+		private List<Uorf> refUorfs;
+		private Uorf refUorf;
+
+		/**
+		 * Creates a spliced UTR, and finds the uORFs in it.
+		 *
+		 * @param bases the spliced bases, upper-case and reading towards the start of the gene
+		 * @param exonOffsets the position in the spliced bases where each exon starts
+		 */
+		public SplicedUtr(byte[] bases, int[] exonOffsets) {
+			// The visualisations are only built if a result is displayed, so they are not kept here
+			this(bases, exonOffsets, scanReference(bases));
+		}
+
+		private static UorfScanner.Frame[] scanReference(byte[] bases) {
+			long time = (UorfTimings.ENABLED ? System.nanoTime() : 0);
+			UorfScanner.Frame[] retval = UorfScanner.scanFrames(bases, false);
+			if (UorfTimings.ENABLED) {
+				UorfTimings.record(UorfTimings.Stage.REFERENCE_SCAN, time);
+			}
+			return retval;
+		}
+
+		/**
+		 * Creates a spliced UTR from uORFs that have already been found.
+		 *
+		 * @param bases the spliced bases, upper-case and reading towards the start of the gene
+		 * @param exonOffsets the position in the spliced bases where each exon starts
+		 * @param frames the uORFs in the three coding frames, as found by UorfScanner.scanFrames
+		 */
+		SplicedUtr(byte[] bases, int[] exonOffsets, UorfScanner.Frame[] frames) {
+			this.bases = bases;
+			this.exonOffsets = exonOffsets;
+			this.frames = frames;
+			List<Uorf> uorfs = new ArrayList<Uorf>();
+			for (int i = 0; i < 3; i++) {
+				frames[i].addTo(uorfs);
+			}
+			// Sort the ORF list by consequence. The most "damaging" ORF will be first
+			Collections.sort(uorfs);
+			refUorfs = Collections.unmodifiableList(uorfs);
+			refUorf = (uorfs.isEmpty() ? null : uorfs.get(0));
+		}
+
+		/**
+		 * Returns the spliced bases. The array must not be modified.
+		 *
+		 * @return a byte array
+		 */
+		public byte[] getBases() {
+			return bases;
+		}
+
+		/**
+		 * Returns the position in the spliced bases where an exon starts. For the reverse strand, this is where the end of the exon is, as the exon is reverse complemented.
+		 *
+		 * @param exon the index of the exon in the FivePrimeUtr
+		 *
+		 * @return an int
+		 */
+		public int getExonOffset(int exon) {
+			return exonOffsets[exon];
+		}
+
+		/**
+		 * Returns the uORFs found in the reference sequence in each coding frame, in order of position, where frame k has its first whole codon at (length + k) % 3.
+		 *
+		 * @return an array of three Frames
+		 */
+		UorfScanner.Frame[] getFrames() {
+			return frames;
+		}
+
+		/**
+		 * Returns the uORFs found in the reference sequence, sorted so that the most "damaging" is first.
+		 *
+		 * @return an unmodifiable List of Uorf objects
+		 */
+		public List<Uorf> getRefUorfs() {
+			return refUorfs;
+		}
+
+		/**
+		 * Returns the most "damaging" uORF in the reference sequence.
+		 *
+		 * @return a Uorf, or null if there are none
+		 */
+		public Uorf getRefUorf() {
+			return refUorf;
+		}
+
+		/**
+		 * Returns the estimated number of bytes used by this object.
+		 *
+		 * @return a long
+		 */
+		public long getWeight() {
+			// Each uORF is held in its frame, with its start and stop positions, and in the sorted list
+			return ENTRY_OVERHEAD + bases.length + 4L * exonOffsets.length + (UORF_OVERHEAD + 24L) * refUorfs.size();
+		}
+	}
+}
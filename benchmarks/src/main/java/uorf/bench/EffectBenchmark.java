@@ -0,0 +1,127 @@
+package uorf.bench;
+
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of calculateUorfEffect on a synthetic 5-prime UTR of two exons, held in an InMemoryReference. Each call uses the next of a fixed set of random variants in the UTR.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EffectBenchmark
+{
+	private static final String CHR = "1";
+	private static final int FLANK = 1000;
+	private static final int INTRON = 100;
+	private static final int VARIANTS = 256;
+	private static final char[] BASES = {'A', 'C', 'G', 'T'};
+
+	/**
+	 * The kinds of variant to benchmark.
+	 */
+	public enum VariantType
+	{
+		/** A single base change */
+		SNV,
+		/** An insertion or deletion of 1 to 10 bases */
+		INDEL,
+		/** An insertion of 50 to 200 bases */
+		LARGE_INSERTION
+	}
+
+	@Param({"50", "200", "1000", "10000"})
+	public int length;
+
+	@Param({"0.4", "0.6"})
+	public double gc;
+
+	@Param({"1", "-1"})
+	public int strand;
+
+	@Param
+	public VariantType variant;
+
+	private Object reference, cache, utr;
+	private int[] positions = new int[VARIANTS];
+	private String[] refs = new String[VARIANTS];
+	private String[] alts = new String[VARIANTS];
+	private int next = 0;
+
+	@Setup
+	public void setup() throws ReflectiveOperationException {
+		// A different seed for each combination of parameters, so that they do not share prefixes of the same random sequence
+		Random random = new Random(Objects.hash(length, gc, strand, variant.ordinal()));
+		// The UTR is split into two exons, with an intron and some other sequence around them
+		int exon1Start = FLANK + 1;
+		int exon1End = FLANK + length / 2;
+		int exon2Start = exon1End + INTRON + 1;
+		int exon2End = exon2Start + (length - length / 2) - 1;
+		String chrBases = UorfHandles.randomBases(random, exon2End + FLANK, gc);
+		reference = UorfHandles.newReference(CHR, chrBases);
+		cache = UorfHandles.newCache(64L * 1024 * 1024);
+		utr = UorfHandles.newUtr(CHR, strand > 0, exon1Start, exon1End, exon2Start, exon2End);
+		for (int i = 0; i < VARIANTS; i++) {
+			boolean firstExon = (exon1End >= exon1Start) && random.nextBoolean();
+			int start = (firstExon ? exon1Start : exon2Start);
+			int end = (firstExon ? exon1End : exon2End);
+			int pos = start + random.nextInt(end - start + 1);
+			String base = chrBases.substring(pos - 1, pos);
+			String alt;
+			String ref = base;
+			if (variant == VariantType.SNV) {
+				alt = base;
+				while (alt.equals(base)) {
+					alt = String.valueOf(BASES[random.nextInt(4)]);
+				}
+			} else if (variant == VariantType.LARGE_INSERTION) {
+				alt = base + UorfHandles.randomBases(random, 50 + random.nextInt(151), gc);
+			} else if (random.nextBoolean() && (pos < end)) {
+				// A deletion, which must stay inside the exon
+				int deleted = 1 + random.nextInt(Math.min(10, end - pos));
+				ref = chrBases.substring(pos - 1, pos + deleted);
+				alt = base;
+			} else {
+				alt = base + UorfHandles.randomBases(random, 1 + random.nextInt(10), gc);
+			}
+			positions[i] = pos;
+			refs[i] = ref;
+			alts[i] = alt;
+		}
+	}
+
+	/**
+	 * Annotation with the spliced UTR and its reference uORFs already in the cache, which is the usual case in a batch run.
+	 */
+	@Benchmark
+	public Object cached() throws Throwable {
+		int i = next;
+		next = (i + 1) % VARIANTS;
+		return (Object) UorfHandles.CALCULATE_UORF_EFFECT.invokeExact(reference, cache, utr, CHR, positions[i], refs[i], alts[i]);
+	}
+
+	/**
+	 * Annotation without a cache, so the UTR is read from the reference, spliced and searched every time.
+	 */
+	@Benchmark
+	public Object uncached() throws Throwable {
+		int i = next;
+		next = (i + 1) % VARIANTS;
+		return (Object) UorfHandles.CALCULATE_UORF_EFFECT.invokeExact(reference, (Object) null, utr, CHR, positions[i], refs[i], alts[i]);
+	}
+}
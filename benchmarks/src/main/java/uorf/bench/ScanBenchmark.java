@@ -0,0 +1,90 @@
+package uorf.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of searching a whole 5-prime UTR sequence for uORFs, and of reverse complementing it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ScanBenchmark
+{
+	@Param({"50", "200", "1000", "10000"})
+	public int length;
+
+	@Param({"0.4", "0.6"})
+	public double gc;
+
+	private String bases;
+	private byte[] baseBytes;
+
+	@Setup
+	public void setup() {
+		// A different seed for each combination of parameters, so that they do not share prefixes of the same random sequence
+		bases = UorfHandles.randomBases(new Random(Objects.hash(length, gc)), length, gc);
+		baseBytes = bases.getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * The simple search of each of the three frames, as used to check the faster search.
+	 */
+	@Benchmark
+	public List<Object> findUorfs(Blackhole blackhole) throws Throwable {
+		List<Object> retval = new ArrayList<Object>();
+		for (int k = 0; k < 3; k++) {
+			blackhole.consume((String) UorfHandles.FIND_UORFS.invokeExact(bases, (bases.length() + k) % 3, retval));
+		}
+		return retval;
+	}
+
+	/**
+	 * The single-pass search of all three frames, as done once for each reference 5-prime UTR.
+	 */
+	@Benchmark
+	public Object scanFrames() throws Throwable {
+		return (Object) UorfHandles.SCAN_FRAMES.invokeExact(baseBytes, false);
+	}
+
+	/**
+	 * The same search, also building the visualisations.
+	 */
+	@Benchmark
+	public Object scanFramesVisualised() throws Throwable {
+		return (Object) UorfHandles.SCAN_FRAMES.invokeExact(baseBytes, true);
+	}
+
+	@Benchmark
+	public String reverse() throws Throwable {
+		return (String) UorfHandles.REVERSE.invokeExact(bases);
+	}
+
+	/**
+	 * Reverse complementing a whole spliced 5-prime UTR in place, as done once for each reverse strand transcript. Each call reverses the result of the last one, which is just as valid a sequence.
+	 */
+	@Benchmark
+	public byte[] reverseInPlace() throws Throwable {
+		UorfHandles.REVERSE_IN_PLACE.invokeExact(baseBytes, 0, baseBytes.length);
+		return baseBytes;
+	}
+}
@@ -0,0 +1,133 @@
+package uorf.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Access to the uORF classes, which are in the default package and so cannot be named from the benchmarks, because JMH needs benchmarks to be in a named package.
+ * The handles are static final, so the JIT compiles calls through them as direct calls.
+ */
+final class UorfHandles
+{
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	/**
+	 * Uorf.calculateUorfEffect(ReferenceProvider, UtrSequenceCache, FivePrimeUtr, String, int, String, String), as (Object, Object, Object, String, int, String, String)Object.
+	 */
+	static final MethodHandle CALCULATE_UORF_EFFECT;
+
+	/**
+	 * Uorf.findUorfs(String, int, List), as (String, int, List)String.
+	 */
+	static final MethodHandle FIND_UORFS;
+
+	/**
+	 * Uorf.reverse(String), as (String)String.
+	 */
+	static final MethodHandle REVERSE;
+
+	/**
+	 * Uorf.reverse(byte[], int, int), as (byte[], int, int)void.
+	 */
+	static final MethodHandle REVERSE_IN_PLACE;
+
+	/**
+	 * UorfScanner.scanFrames(byte[], boolean), as (byte[], boolean)Object.
+	 */
+	static final MethodHandle SCAN_FRAMES;
+
+	private static final Class<?> REFERENCE_PROVIDER, UTR, EXON, CACHE, IN_MEMORY_REFERENCE;
+
+	static {
+		try {
+			Class<?> uorf = Class.forName("Uorf");
+			REFERENCE_PROVIDER = Class.forName("ReferenceProvider");
+			UTR = Class.forName("Uorf$FivePrimeUtr");
+			EXON = Class.forName("Uorf$FivePrimeUtrExon");
+			CACHE = Class.forName("UtrSequenceCache");
+			IN_MEMORY_REFERENCE = Class.forName("InMemoryReference");
+			Class<?> scanner = Class.forName("UorfScanner");
+			Class<?> result = Class.forName("Uorf$UorfResult");
+			MethodHandles.Lookup uorfLookup = MethodHandles.privateLookupIn(uorf, LOOKUP);
+			CALCULATE_UORF_EFFECT = uorfLookup.findStatic(uorf, "calculateUorfEffect", MethodType.methodType(result, REFERENCE_PROVIDER, CACHE, UTR, String.class, int.class, String.class, String.class))
+					.asType(MethodType.methodType(Object.class, Object.class, Object.class, Object.class, String.class, int.class, String.class, String.class));
+			FIND_UORFS = uorfLookup.findStatic(uorf, "findUorfs", MethodType.methodType(String.class, String.class, int.class, List.class));
+			REVERSE = uorfLookup.findStatic(uorf, "reverse", MethodType.methodType(String.class, String.class));
+			REVERSE_IN_PLACE = uorfLookup.findStatic(uorf, "reverse", MethodType.methodType(void.class, byte[].class, int.class, int.class));
+			SCAN_FRAMES = MethodHandles.privateLookupIn(scanner, LOOKUP).findStatic(scanner, "scanFrames", MethodType.methodType(Class.forName("[LUorfScanner$Frame;"), byte[].class, boolean.class))
+					.asType(MethodType.methodType(Object.class, byte[].class, boolean.class));
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private UorfHandles() {
+	}
+
+	/**
+	 * Returns an InMemoryReference holding one chromosome.
+	 *
+	 * @param chr the name of the chromosome
+	 * @param bases the bases of the chromosome
+	 *
+	 * @return an InMemoryReference
+	 */
+	static Object newReference(String chr, String bases) throws ReflectiveOperationException {
+		Object retval = IN_MEMORY_REFERENCE.getConstructor().newInstance();
+		IN_MEMORY_REFERENCE.getMethod("put", String.class, String.class).invoke(retval, chr, bases);
+		return retval;
+	}
+
+	/**
+	 * Returns a UtrSequenceCache.
+	 *
+	 * @param maxBytes the size limit of the cache
+	 *
+	 * @return a UtrSequenceCache
+	 */
+	static Object newCache(long maxBytes) throws ReflectiveOperationException {
+		return CACHE.getConstructor(long.class).newInstance(maxBytes);
+	}
+
+	/**
+	 * Returns a FivePrimeUtr.
+	 *
+	 * @param chr the chromosome of the UTR
+	 * @param forwardStrand true if the gene is on the forward strand
+	 * @param exons the start and end of each exon, 1-based and inclusive
+	 *
+	 * @return a FivePrimeUtr
+	 */
+	static Object newUtr(String chr, boolean forwardStrand, int... exons) throws ReflectiveOperationException {
+		List<Object> exonList = new ArrayList<Object>();
+		for (int i = 0; i < exons.length; i += 2) {
+			exonList.add(EXON.getConstructor(String.class, int.class, int.class).newInstance(chr, exons[i], exons[i + 1]));
+		}
+		return UTR.getConstructor(boolean.class, List.class).newInstance(forwardStrand, exonList);
+	}
+
+	/**
+	 * Returns random bases, with a given chance of each base being G or C.
+	 *
+	 * @param random the random number generator
+	 * @param length the number of bases
+	 * @param gc the fraction of G and C bases
+	 *
+	 * @return a String of A, C, G and T
+	 */
+	static String randomBases(Random random, int length, double gc) {
+		StringBuilder retval = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			if (random.nextDouble() < gc) {
+				retval.append(random.nextBoolean() ? 'G' : 'C');
+			} else {
+				retval.append(random.nextBoolean() ? 'A' : 'T');
+			}
+		}
+		return retval.toString();
+	}
+}